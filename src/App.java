@@ -1,8 +1,20 @@
 // GUI imports
 import javax.swing.BoxLayout;
 import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import java.awt.BorderLayout;
+import java.awt.Graphics;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+
+// File IO & utility imports
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 // Project imports
 import gui.*;
@@ -23,7 +35,10 @@ public class App extends JFrame {
 
     // Data fields
     private Settings s;
-    private SudokuChecker sc;
+
+    // When the app was started, and if the window was painted since.
+    private static long startTime = System.nanoTime();
+    private boolean painted = false;
 
     /**
      * Create a new App object, initializing the GUI and internal logic.
@@ -31,15 +46,54 @@ public class App extends JFrame {
     public App() {
         super("Sudoku");
         s = new Settings();
+        SolverDispatcher.load(new File(s.getAppDirectory()));
         initSetup();
         nav = new Nav(s, false);
-        sc = new SudokuChecker(nav.getLoadedGrid());
-        board = new Board(s, nav.getLoadedGrid(), sc);
+        board = new Board(s, nav.getLoadedGrid());
 
         nav.setBoard(board);
-        nav.setChecker(sc);
 
         add(createApp());
+
+        // Swap in the font from the Settings once it is loaded.
+        s.addFontListener(font -> {
+            nav.updateFont(font);
+            board.updateFont(font);
+        });
+
+        // Save any pending changes before the app exits.
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                nav.close();
+            }
+        });
+    }
+
+    /**
+     * Paint the window, and report the time from the start of the app to
+     * the first paint.
+     * 
+     * @param g
+     */
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if(painted) return;
+
+        painted = true;
+        System.out.printf(
+            "Time to first paint: %.1f ms%n", (System.nanoTime() - startTime) / 1e6
+        );
+    }
+
+    /**
+     * Create the App on the Swing event dispatch thread and show it. The
+     * puzzle is solved in the background once the window is shown, see
+     * Board.
+     */
+    public static void launch() {
+        SwingUtilities.invokeLater(() -> new App().setVisible(true));
     }
 
     /**
@@ -94,18 +148,193 @@ public class App extends JFrame {
         new SudokuChecker(nav.getLoadedGrid());
     }
 
+    /**
+     * Benchmark every solving engine on the given .sdku files, and write the
+     * timings to the calibration table in the app directory. The table is
+     * used by the SolverDispatcher to pick the fastest engine for a puzzle.
+     * 
+     * If no files are given, the puzzles in the resources directory are used.
+     * 
+     * @param files
+     */
+    public static void calibrate(String[] files) {
+        Settings s = new Settings();
+
+        List<File> inputs = new ArrayList<>();
+        for(String filename : files) inputs.add(new File(filename));
+        if(inputs.isEmpty()) {
+            File[] resources = new File("resources").listFiles(
+                (dir, name) -> name.endsWith(".sdku")
+            );
+            if(resources != null)
+                for(File f : resources) inputs.add(f);
+        }
+
+        List<Cell[][]> puzzles = new ArrayList<>();
+        for(File f : inputs) {
+            try {
+                puzzles.add(Nav.readGrid(f));
+            } catch(Exception e) {
+                System.out.println("Skipping " + f + ": " + e.getMessage());
+            }
+        }
+
+        CalibrationTable table = SolverDispatcher.calibrate(puzzles);
+        File tableFile = new File(s.getAppDirectory(), SolverDispatcher.TABLE_FILE);
+        try {
+            table.save(tableFile);
+            System.out.println(
+                "Calibrated " + puzzles.size() + " puzzles, written to " +
+                tableFile.getAbsolutePath()
+            );
+        } catch(IOException e) {
+            System.out.println("Unable to write " + tableFile + ".");
+        }
+    }
+
+    /**
+     * Pack the puzzles of the given text files into a binary .sdkb container,
+     * for eg. "--pack out.sdkb [--solutions] puzzles.txt ...". With
+     * --solutions, every puzzle is solved with the calibrated engine and its
+     * solution stored with it, and unsolvable puzzles are skipped.
+     * 
+     * Without solutions, puzzles are written as they are parsed, so inputs of
+     * any size can be packed. With solutions, the puzzles are first kept off
+     * the heap in a PuzzleStore, and solved in parallel on every processor.
+     * 
+     * @param args the container file, then the options and input files
+     */
+    public static void pack(String[] args) {
+        if(args.length < 2) {
+            System.out.println("Usage: --pack <out.sdkb> [--solutions] <files>");
+            return;
+        }
+
+        boolean solutions = Arrays.asList(args).contains("--solutions");
+        int flags = solutions ? PuzzleContainer.HAS_SOLUTIONS : 0;
+        File out = new File(args[0]);
+        if(solutions) SolverDispatcher.load(new File(new Settings().getAppDirectory()));
+
+        PuzzleStore store = solutions ? new PuzzleStore(true) : null;
+        try(PuzzleContainer.Writer writer = new PuzzleContainer.Writer(out, flags)) {
+            for(int i = 1; i < args.length; i++) {
+                if(args[i].equals("--solutions")) continue;
+
+                PuzzleParser.parseFile(new File(args[i]), puzzle -> {
+                    if(store != null) {
+                        store.add(puzzle);
+                        return;
+                    }
+
+                    try {
+                        writer.add(puzzle, null, 0);
+                    } catch(IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+
+            if(store != null) {
+                // Solve the puzzles in place, leaving unsolvable ones without
+                // a solution, so they are skipped when written.
+                int threads = Runtime.getRuntime().availableProcessors();
+                store.parallelForEach(threads, (puzzle, id) -> {
+                    Cell[][] solved = SolverDispatcher.dispatch(PuzzleParser.toGrid(puzzle));
+                    if(solved != null) store.setSolution(id, PuzzleParser.fromGrid(solved));
+                });
+                store.writeTo(writer);
+
+                long skipped = store.size() - writer.getCount();
+                if(skipped > 0) System.out.println("Skipped " + skipped + " unsolvable puzzles");
+            }
+
+            System.out.println("Packed " + writer.getCount() + " puzzles into " + out);
+        } catch(IOException | UncheckedIOException e) {
+            System.out.println("Unable to pack " + out + ": " + e.getMessage());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Interrupted while packing " + out);
+        } finally {
+            if(store != null) store.close();
+        }
+    }
+
+    /**
+     * Merge puzzle files into one file without duplicates, counting
+     * isomorphic puzzles as duplicates, for eg.
+     * "--dedup out.txt [--threads N] [--expected N] [--bloom] a.txt b.sdkb".
+     * 
+     * The fingerprints of the puzzles seen are kept off-heap in a table sized
+     * for the expected number of unique puzzles. With --bloom, puzzles beyond
+     * that are checked against a Bloom filter instead, so memory stays bounded
+     * at the cost of dropping a few new puzzles, whose estimated number is
+     * printed with the summary.
+     * 
+     * @param args the output file, then the options and input files
+     */
+    public static void dedup(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long expected = 1 << 20;
+        boolean bloom = false;
+        List<File> inputs = new ArrayList<>();
+
+        try {
+            for(int i = 1; i < args.length; i++) {
+                if(args[i].equals("--threads")) threads = Integer.parseInt(args[++i]);
+                else if(args[i].equals("--expected")) expected = Long.parseLong(args[++i]);
+                else if(args[i].equals("--bloom")) bloom = true;
+                else inputs.add(new File(args[i]));
+            }
+        } catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            inputs.clear();
+        }
+
+        if(args.length < 2 || inputs.isEmpty()) {
+            System.out.println(
+                "Usage: --dedup <out> [--threads N] [--expected N] [--bloom] <files>"
+            );
+            return;
+        }
+
+        BloomFilter overflow = bloom ? new BloomFilter(expected * 4, 10) : null;
+        FingerprintSet seen = new FingerprintSet(expected, overflow);
+        Deduplicator dedup = new Deduplicator(seen, threads);
+        long start = System.nanoTime();
+        try {
+            dedup.run(inputs, new File(args[0]));
+            System.out.println(
+                "Kept " + dedup.getUnique() + " of " + dedup.getInputs() +
+                " puzzles in " + (System.nanoTime() - start) / 1000000 + " ms"
+            );
+            if(seen.getOverflowed() > 0) System.out.println(
+                "The table was full: " + seen.getOverflowed() + " puzzles were only " +
+                "added to the Bloom filter, which dropped about " +
+                seen.getEstimatedDropped() + " new puzzles (use a larger --expected)"
+            );
+        } catch(IOException | IllegalStateException e) {
+            System.out.println("Unable to deduplicate: " + e.getMessage());
+        }
+    }
+
     /**
      * Main method for the Sudoku App.
      * 
      * @param args
      */
     public static void main(String[] args) {
+        startTime = System.nanoTime();
         if(args.length == 0)
-            new App().setVisible(true);
+            launch();
         else if(args[0].equals("-c") ||
                 args[0].equals("--cli"))
             cli();
+        else if(args[0].equals("--calibrate"))
+            calibrate(Arrays.copyOfRange(args, 1, args.length));
+        else if(args[0].equals("--pack"))
+            pack(Arrays.copyOfRange(args, 1, args.length));
+        else if(args[0].equals("--dedup"))
+            dedup(Arrays.copyOfRange(args, 1, args.length));
         else
-            new App().setVisible(true);
+            launch();
     }
 }
\ No newline at end of file
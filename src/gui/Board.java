@@ -1,19 +1,29 @@
 package gui;
 
 // GUI imports
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.ActionMap;
+import javax.swing.InputMap;
 import javax.swing.JPanel;
+import javax.swing.KeyStroke;
+import javax.swing.SwingWorker;
+import java.awt.Font;
 import java.awt.GridLayout;
 
 // Event & action imports
+import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
-import java.awt.event.KeyListener;
+import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.util.concurrent.ExecutionException;
 
 // Processing & backend imports
 import gui.backend.Cell;
+import gui.backend.GridModel;
+import gui.backend.GridSnapshot;
 import gui.backend.Settings;
-import gui.backend.SudokuChecker;
 
 /**
  * The Board class represents the Sudoku board in the GUI.
@@ -22,6 +32,17 @@ import gui.backend.SudokuChecker;
  * the board. Accessible information from the Board includes:
  *      - the current state of the board, including filled values and notes;
  * 
+ * The cells are either shown by a single BoardCanvas painting the whole
+ * grid, or by a CellGUI panel per cell, see Settings.getPaintedBoard(). The
+ * Board handles input the same way for both, through their CellViews.
+ * 
+ * Keyboard input is bound once on the Board, see bindKeys(), and applies to
+ * the selected cell:
+ *      - 1 to 9 enter a value, or a note in notes mode;
+ *      - Backspace and Delete remove the value;
+ *      - N toggles notes mode, like a right click; and
+ *      - the arrow keys move the selection.
+ * 
  * TODO: Future features:
  *      - the current difficulty;
  *      - the current time since the puzzle was started;
@@ -31,10 +52,14 @@ import gui.backend.SudokuChecker;
 public class Board extends JPanel {
     private Settings s;
     private Cell[][] grid;
-    private Cell[][] solvedGrid;
-    private CellGUI[][] gridGUI;
-    private SudokuChecker sc;
-    private CellGUI selected;
+    private GridModel model;
+    private CellView[][] gridGUI;
+    private CellView selected;
+
+    // The canvas painting the cells, if the Board is painted, and the cell
+    // under the mouse.
+    private BoardCanvas canvas;
+    private CellView hovered;
 
     /**
      * Create a new Board object.
@@ -52,45 +77,31 @@ public class Board extends JPanel {
         super(new GridLayout(9, 9));
         this.s = s;
         this.grid = grid;
-        solvedGrid = new SudokuChecker(Cell.copyGrid(grid)).getSolution();
+        model = new GridModel(grid);
 
         style();
+        bindKeys();
         createBoard();
+        prepare();
     }
 
     /**
-     * Create a new Board object.
-     * 
-     * Board requires a Settings object for styling, sizing, and for different
-     * toggleable features.
-     * 
-     * A 2D Cell array is required to abstract the data away from the Board,
-     * and the GUI in general.
-     * 
-     * A SudokuChecker is required if Settings.getAutoCheckValues() is true.
+     * Get the grid of the Board.
      * 
-     * @param s
-     * @param grid
-     * @param sc
+     * @return
      */
-    public Board(Settings s, Cell[][] grid, SudokuChecker sc) {
-        super(new GridLayout(9, 9));
-        this.s = s;
-        this.grid = grid;
-        this.sc = sc;
-        solvedGrid = new SudokuChecker(Cell.copyGrid(grid)).getSolution();
-
-        style();
-        createBoard();
+    public Cell[][] getGrid() {
+        return grid;
     }
 
     /**
-     * Get the grid of the Board.
+     * Get the GridModel of the Board, which caches the candidates,
+     * conflicts, and solution of the grid.
      * 
-     * @return
+     * @return GridModel
      */
-    public Cell[][] getGrid() {
-        return grid;
+    public GridModel getModel() {
+        return model;
     }
 
     /**
@@ -102,13 +113,35 @@ public class Board extends JPanel {
      */
     public void setGrid(Cell[][] grid) {
         this.grid = grid;
+
+        // Always start a new GridModel, as the cells may be new even if the
+        // array is the same, and the cached solution belongs to the old ones.
+        model = new GridModel(grid);
         gridGUI = null;
         selected = null;
+        hovered = null;
 
         removeAll();
         createBoard();
         repaint();
         revalidate();
+        prepare();
+    }
+
+    /**
+     * Use the given font, for eg. once the font from the Settings is loaded,
+     * for the values and notes of every cell.
+     * 
+     * @param font
+     */
+    public void updateFont(Font font) {
+        if(gridGUI == null) return;
+
+        Font valueFont = s.getTheme().getValueFont(font);
+        Font noteFont = s.getTheme().getNoteFont(font);
+        for(CellView[] row : gridGUI) {
+            for(CellView cell : row) cell.setFonts(valueFont, noteFont);
+        }
     }
 
     /**
@@ -122,16 +155,33 @@ public class Board extends JPanel {
     /**
      * Create the Board Panel with the appropriate cells.
      * 
-     * Every CellGUI object is created with the appropriate Cell object and
-     * Settings object. The CellGUI objects are then added to the Board Panel.
+     * If the Board is painted, a single BoardCanvas shows every cell, and is
+     * given a MouseListener finding the cell under the mouse.
      * 
-     * Each CellGUI object is also given a MouseListener to handle user input,
-     * and a KeyListener to handle keyboard input if/when the cell is selected.
+     * Otherwise, every CellGUI object is created with the appropriate Cell
+     * object and Settings object. The CellGUI objects are then added to the
+     * Board Panel. Each CellGUI object is also given a MouseListener to
+     * handle user input.
      */
     private void createBoard() {
-        if(s.getAutoFillNotes()) grid = sc.getPossibleValues(grid);
-        gridGUI = new CellGUI[9][9];
+        gridGUI = new CellView[9][9];
+
+        if(s.getPaintedBoard()) {
+            setLayout(new GridLayout(1, 1));
+            canvas = new BoardCanvas(s, grid);
+            for(int i = 0; i < 9; i++)
+                for(int j = 0; j < 9; j++)
+                    gridGUI[i][j] = canvas.getView(i, j);
+
+            MouseAdapter mouse = createCanvasListener();
+            canvas.addMouseListener(mouse);
+            canvas.addMouseMotionListener(mouse);
+            add(canvas);
+            return;
+        }
 
+        setLayout(new GridLayout(9, 9));
+        canvas = null;
         for(int i = 0; i < 9; i++) {
             for(int j = 0; j < 9; j++) {
                 // Create a new CellGUI object with the appropriate Cell object.
@@ -142,61 +192,85 @@ public class Board extends JPanel {
 
                 // Add the CellGUI object to the Board Panel.
                 gridGUI[i][j] = cell;
-                add(gridGUI[i][j]);
+                add(cell);
             }
         }
     }
 
     /**
-     * Select the given cell and highlight all cells in the same row, column,
-     * and box.
+     * Compute the solution and the candidates of the grid on a background
+     * thread, so the Board is shown right away even for a hard puzzle, and
+     * hand them to the GridModel once ready. The notes are then filled in if
+     * Settings.getAutoFillNotes() is true.
+     * 
+     * Until the solution is ready, values are entered without being checked,
+     * see enter(). The results are dropped if another grid was
+     * set in the meantime.
+     */
+    private void prepare() {
+        GridModel target = model;
+        GridSnapshot snapshot = target.snapshot();
+        boolean solve = !target.isSolutionComputed();
+
+        new SwingWorker<GridModel, Void>() {
+            @Override
+            protected GridModel doInBackground() {
+                // Work on a private copy, since the GridModel of the Board
+                // is only used on the event dispatch thread.
+                GridModel copy = new GridModel(snapshot.toCells());
+                copy.getCandidateMasks();
+                if(solve) copy.getSolution();
+                return copy;
+            }
+
+            @Override
+            protected void done() {
+                if(model != target) return;
+
+                GridModel copy;
+                try {
+                    copy = get();
+                } catch(InterruptedException | ExecutionException e) {
+                    System.out.println("Unable to prepare the puzzle: " + e.getMessage());
+                    return;
+                }
+
+                if(solve) target.setSolution(copy.getSolution());
+                target.setCandidateMasks(copy.getCandidateMasks(), snapshot.getVersion());
+
+                if(s.getAutoFillNotes()) {
+                    target.fillPossibleValues();
+                    for(CellView[] row : gridGUI) {
+                        for(CellView cell : row) cell.updateNotes();
+                    }
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Select or deselect the given cell, with all cells in the same row,
+     * column, and box.
      * 
      * Intended to be used in conjunction with a MouseListener.
      * 
      * @param cell
+     * @param selected
      */
-    private void select(Cell cell) {
-        // Select the CellGUI objects in the same row and column, but not in
-        // the same box. 
+    private void select(Cell cell, boolean selected) {
+        int row = cell.getRow();
+        int col = cell.getCol();
         for(int n = 0; n < 9; n++) {
-            int row = cell.getRow();
-            int col = cell.getCol();
-            boolean colInSameBox = 
-                (gridGUI[n][col].cell.getBox() == 
-                cell.getBox());
-
-            boolean rowInSameBox = 
-                (gridGUI[row][n].cell.getBox() ==
-                cell.getBox());
-
-            // Handling edge cases where the column or row are in the box.
-            if(colInSameBox && !rowInSameBox) {
-                gridGUI[row][n].select();
-                continue;
-            } else if(!colInSameBox && rowInSameBox) {
-                gridGUI[n][col].select();
-                continue;
-                
-            // Skip the cell if it is in the same box.
-            } else if(colInSameBox && rowInSameBox) continue;
-
-            gridGUI[n][col].select();
-            gridGUI[row][n].select();
+            gridGUI[row][n].setSelected(selected);
+            gridGUI[n][col].setSelected(selected);
         }
 
         // Select every cell in the box.
-        int boxRow = cell.getRow() / 3;
-        int boxCol = cell.getCol() / 3;
+        int boxRow = row / 3;
+        int boxCol = col / 3;
         for(int n = 0; n < 3; n++) {
-            for(int m = 0; m < 3; m++) {
-                int row = boxRow * 3 + n;
-                int col = boxCol * 3 + m;
-                
-                // Skip the user-selected cell for clearer highlighting.
-                if(row == cell.getRow() && col == cell.getCol()) continue;
-
-                gridGUI[row][col].select();
-            }
+            for(int m = 0; m < 3; m++)
+                gridGUI[boxRow * 3 + n][boxCol * 3 + m].setSelected(selected);
         }
     }
 
@@ -219,28 +293,7 @@ public class Board extends JPanel {
         return new MouseListener() {
             @Override
             public void mouseClicked(MouseEvent e) {
-                // Left click
-                if(e.getButton() == 1) {
-                    // Deselect the already selected cell.
-                    if(selected != null) select(selected.cell);
-                    
-                    // Deselect the cell if it is already selected.
-                    if(selected == cell) {
-                        selected = null;
-                        return;
-                    }
-
-                    // Select the cell and add a KeyListener for input.
-                    select(cell.cell);
-                    selected = cell;
-                    selected.requestFocusInWindow();
-                    selected.addKeyListener(createKeyListener());
-
-                // Right click
-                } else if(e.getButton() == 3) {
-                    cell.setNoteMode();
-                    return;
-                }
+                click(cell, e.getButton());
             }
             @Override
             public void mousePressed(MouseEvent e) {}
@@ -248,76 +301,226 @@ public class Board extends JPanel {
             public void mouseReleased(MouseEvent e) {}
             @Override
             public void mouseEntered(MouseEvent e) {
-                cell.select();
+                hover(cell);
             }
             @Override
             public void mouseExited(MouseEvent e) {
-                cell.select();
+                if(hovered == cell) hover(null);
             }
         };
     }
 
     /**
-     * Create a KeyListener for CellGUI objects.
-     * 
-     * This KeyListener listens for key releases, and updates the
-     * selected cell with additional possible values or a new value.
+     * Create the MouseListener of the BoardCanvas, which finds the cell
+     * under the mouse and handles clicks and hovering like the MouseListener
+     * of a CellGUI.
      * 
-     * Only keyReleased is implemented, as keyTyped does not allow for
-     * certain features regarding key codes.
-     * 
-     * @return KeyListener
+     * @return MouseAdapter
      */
-    private KeyListener createKeyListener() {
-        return new KeyListener() {
+    private MouseAdapter createCanvasListener() {
+        return new MouseAdapter() {
             @Override
-            public void keyTyped(KeyEvent e) {}
-
+            public void mouseClicked(MouseEvent e) {
+                CellView cell = canvas.viewAt(e.getX(), e.getY());
+                if(cell != null) click(cell, e.getButton());
+            }
             @Override
-            public void keyPressed(KeyEvent e) {}
-
+            public void mouseMoved(MouseEvent e) {
+                hover(canvas.viewAt(e.getX(), e.getY()));
+            }
             @Override
-            public void keyReleased(KeyEvent e) {
-                // If a CellGUI is not selected, do nothing.
-                if(selected == null) return;
-
-                char key = e.getKeyChar();
-                Cell c = selected.cell;
-
-                // If the Cell is an initial value read from the starting file
-                // then skip it.
-                if(c.isInitValue()) return;
-                
-                // Backspace support for removing values.
-                if(e.getKeyCode() == KeyEvent.VK_BACK_SPACE) {
-                    selected.removeValue();
-                    selected.repaint();
-                    selected.revalidate();
-                    return;
-                }
+            public void mouseDragged(MouseEvent e) {
+                hover(canvas.viewAt(e.getX(), e.getY()));
+            }
+            @Override
+            public void mouseEntered(MouseEvent e) {
+                hover(canvas.viewAt(e.getX(), e.getY()));
+            }
+            @Override
+            public void mouseExited(MouseEvent e) {
+                hover(null);
+            }
+        };
+    }
 
-                // Only allow digits to be entered.
-                if(!Character.isDigit(key)) return;
+    /**
+     * Move the hover highlight to the given cell. Hovering a cell only
+     * highlights it, and never changes the selection.
+     * 
+     * @param cell the cell under the mouse, or null if there is none
+     */
+    private void hover(CellView cell) {
+        if(cell == hovered) return;
 
-                // Enter the value from the keyboard.
-                if(!selected.isInNotesMode()) {
+        if(hovered != null) hovered.setHovered(false);
+        if(cell != null) cell.setHovered(true);
+        hovered = cell;
+    }
 
-                    // Set the value of the cell and check if it is correct.
-                    if(s.getAutoCheckValues()) {
-                        int row = c.getRow();
-                        int col = c.getCol();
-                        int expected = solvedGrid[row][col].getValue();
-                        selected.setValue(Character.getNumericValue(key), expected);
+    /**
+     * Handle a click on a cell: a left click selects the cell, or deselects
+     * it if it is already selected, and a right click toggles its note mode.
+     * 
+     * @param cell
+     * @param button
+     */
+    private void click(CellView cell, int button) {
+        // Left click
+        if(button == 1) {
+            // Deselect the already selected cell.
+            CellView previous = selected;
+            deselect();
+            
+            // Deselect the cell if it is already selected.
+            if(previous == cell) return;
+
+            // Select the cell and focus it for keyboard input.
+            select(cell.getCell(), true);
+            selected = cell;
+            focus(cell);
+
+        // Right click
+        } else if(button == 3) {
+            cell.setNoteMode();
+        }
+    }
 
-                    // Set the value of the cell.
-                    } else selected.setValue(Character.getNumericValue(key));
+    /**
+     * Deselect the selected cell, if any, and remove the highlight of its
+     * row, column, and box.
+     */
+    private void deselect() {
+        if(selected == null) return;
 
-                // Add the possible value to the cell.
-                } else selected.addPossibleValue(Character.getNumericValue(key));
+        select(selected.getCell(), false);
+        selected = null;
+    }
 
-                selected.repaint();
-                selected.revalidate();
+    /**
+     * Focus the component of the given cell, so the key bindings of the
+     * Board apply to it.
+     * 
+     * @param cell
+     */
+    private void focus(CellView cell) {
+        if(canvas != null) canvas.requestFocusInWindow();
+        else ((CellGUI) cell).requestFocusInWindow();
+    }
+
+    /**
+     * Bind the keys of the Board to its actions, once for the lifetime of
+     * the Board.
+     * 
+     * The bindings apply while a cell of the Board has the focus, and act on
+     * the selected cell, so selecting a cell allocates nothing and a key
+     * press runs a single action however long the game lasts.
+     */
+    private void bindKeys() {
+        InputMap inputs = getInputMap(WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
+        ActionMap actions = getActionMap();
+
+        for(int n = 1; n <= 9; n++) {
+            int value = n;
+            String name = "enter" + n;
+            inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_0 + n, 0), name);
+            inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_NUMPAD0 + n, 0), name);
+            actions.put(name, action(() -> enter(value)));
+        }
+
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_BACK_SPACE, 0), "remove");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0), "remove");
+        actions.put("remove", action(this::remove));
+
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_N, 0), "toggleNotes");
+        actions.put("toggleNotes", action(() -> {
+            if(selected != null) selected.setNoteMode();
+        }));
+
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_UP, 0), "moveUp");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, 0), "moveDown");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_LEFT, 0), "moveLeft");
+        inputs.put(KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT, 0), "moveRight");
+        actions.put("moveUp", action(() -> moveSelection(-1, 0)));
+        actions.put("moveDown", action(() -> moveSelection(1, 0)));
+        actions.put("moveLeft", action(() -> moveSelection(0, -1)));
+        actions.put("moveRight", action(() -> moveSelection(0, 1)));
+    }
+
+    /**
+     * Create an Action running the given task.
+     * 
+     * @param task
+     * @return Action
+     */
+    private static Action action(Runnable task) {
+        return new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                task.run();
             }
         };
     }
-}
\ No newline at end of file
+
+    /**
+     * Enter the given digit into the selected cell, as a value or as a note
+     * in notes mode. Initial values read from the starting file are skipped.
+     * 
+     * @param value
+     */
+    private void enter(int value) {
+        // If a cell is not selected, do nothing.
+        if(selected == null) return;
+
+        Cell c = selected.getCell();
+        if(c.isInitValue()) return;
+
+        // Add the possible value to the cell.
+        if(selected.isInNotesMode()) {
+            selected.addPossibleValue(value);
+            return;
+        }
+
+        // Set the value of the cell and check if it is correct, once the
+        // solution is ready.
+        Cell[][] solvedGrid =
+            s.getAutoCheckValues() && model.isSolutionComputed() ?
+            model.getSolution() : null;
+        if(solvedGrid != null) {
+            int expected = solvedGrid[c.getRow()][c.getCol()].getValue();
+            selected.setValue(value, expected);
+
+        // Set the value of the cell.
+        } else selected.setValue(value);
+    }
+
+    /**
+     * Remove the value of the selected cell, unless it is an initial value.
+     */
+    private void remove() {
+        if(selected == null || selected.getCell().isInitValue()) return;
+
+        selected.removeValue();
+    }
+
+    /**
+     * Move the selection by the given number of rows and columns, staying
+     * on the board.
+     * 
+     * @param rows
+     * @param cols
+     */
+    private void moveSelection(int rows, int cols) {
+        if(selected == null) return;
+
+        Cell c = selected.getCell();
+        int row = Math.max(0, Math.min(8, c.getRow() + rows));
+        int col = Math.max(0, Math.min(8, c.getCol() + cols));
+        CellView next = gridGUI[row][col];
+        if(next == selected) return;
+
+        deselect();
+        select(next.getCell(), true);
+        selected = next;
+        focus(next);
+    }
+}
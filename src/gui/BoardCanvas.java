@@ -0,0 +1,419 @@
+package gui;
+
+// GUI imports
+import javax.swing.JComponent;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+// Processing & backend imports
+import gui.backend.Cell;
+import gui.backend.Settings;
+import gui.backend.Theme;
+
+/**
+ * A BoardCanvas is a single component painting the whole 9x9 grid: the
+ * background, border, value, and notes of every cell. It replaces the 81
+ * CellGUI panels and their 810 labels of the Board, so laying out and
+ * painting the Board no longer goes through hundreds of components.
+ *
+ * Every cell has a CellView which behaves like a CellGUI, so the Board
+ * works the same with either. The Board finds the cell under the mouse
+ * with viewAt().
+ *
+ * Only the cells inside the clip of a repaint are painted. Changes to cells
+ * are tracked rather than repainted right away: once the current event is
+ * handled, the cells whose look actually changed are repainted with a single
+ * repaint of their union, and the component is never revalidated. Selecting
+ * a cell toggles the highlight of up to 21 cells, twice for the cells
+ * shared with the previous selection, which then cost nothing to repaint.
+ *
+ * Values and notes are copied from pre-rendered digits in a GlyphCache
+ * shared by every BoardCanvas, so painting and resizing the board never
+ * lays out or rasterizes text once the digits of the theme are cached.
+ */
+class BoardCanvas extends JComponent {
+    // The styles of a cell.
+    private static final int DEFAULT = 0;
+    private static final int HIGHLIGHTED = 1;
+    private static final int ERROR = 2;
+
+    // The width of the border of a cell.
+    private static final int BORDER_WIDTH = 2;
+
+    // The pre-rendered digits, shared by every BoardCanvas on the event
+    // dispatch thread.
+    private static final GlyphCache GLYPHS = new GlyphCache();
+
+    private final Theme theme;
+    private final CanvasCell[][] cells = new CanvasCell[9][9];
+    private Font valueFont;
+    private Font noteFont;
+
+    // The bounds of the cell being painted or repainted.
+    private final Rectangle bounds = new Rectangle();
+
+    // The cells changed since the last repaint, and the union of the cells
+    // to repaint.
+    private final List<CanvasCell> dirty = new ArrayList<>();
+    private final Rectangle damage = new Rectangle();
+
+    /**
+     * Create a new BoardCanvas for the given grid.
+     *
+     * @param s
+     * @param grid
+     */
+    public BoardCanvas(Settings s, Cell[][] grid) {
+        theme = s.getTheme();
+        valueFont = theme.getValueFont(s.getFont());
+        noteFont = theme.getNoteFont(s.getFont());
+
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++)
+                cells[row][col] = new CanvasCell(grid[row][col], s.getCellGUIStartMode());
+        }
+
+        Dimension cell = s.getCellDimensions();
+        setPreferredSize(new Dimension(cell.width * 9, cell.height * 9));
+        setOpaque(true);
+        setFocusable(true);
+    }
+
+    /**
+     * Get the view of the cell at the given row and column.
+     *
+     * @param row
+     * @param col
+     * @return CellView
+     */
+    public CellView getView(int row, int col) {
+        return cells[row][col];
+    }
+
+    /**
+     * Get the view of the cell at the given point of the canvas.
+     *
+     * @param x
+     * @param y
+     * @return CellView, or null if the point is outside of the grid
+     */
+    public CellView viewAt(int x, int y) {
+        if(x < 0 || y < 0 || x >= getWidth() || y >= getHeight()) return null;
+
+        return cells[y * 9 / getHeight()][x * 9 / getWidth()];
+    }
+
+    /**
+     * Paint every cell inside the clip.
+     *
+     * @param g
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g.create();
+
+        Rectangle clip = g2.getClipBounds();
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++) {
+                cellBounds(row, col, bounds);
+                if(clip == null || clip.intersects(bounds))
+                    paintCell(g2, cells[row][col], bounds);
+            }
+        }
+
+        g2.dispose();
+    }
+
+    /**
+     * Get the bounds of the cell at the given row and column. The cells
+     * share the size of the canvas without gaps, like a GridLayout.
+     *
+     * @param row
+     * @param col
+     * @param out the Rectangle to write the bounds to
+     * @return out
+     */
+    private Rectangle cellBounds(int row, int col, Rectangle out) {
+        int x = col * getWidth() / 9;
+        int y = row * getHeight() / 9;
+        out.setBounds(
+            x, y, (col + 1) * getWidth() / 9 - x, (row + 1) * getHeight() / 9 - y
+        );
+
+        return out;
+    }
+
+    /**
+     * Paint a single cell with its style, in the given bounds.
+     *
+     * @param g
+     * @param cell
+     * @param r
+     */
+    private void paintCell(Graphics2D g, CanvasCell cell, Rectangle r) {
+        Color background;
+        Color text;
+        Color border;
+        switch(cell.style()) {
+            case ERROR:
+                background = theme.getErrorBackground();
+                text = theme.getErrorText();
+                border = theme.getErrorBorder();
+                break;
+            case HIGHLIGHTED:
+                background = theme.getSecondaryBackground();
+                text = theme.getSecondaryText();
+                border = theme.getSecondaryBorder();
+                break;
+            default:
+                background = theme.getPrimaryBackground();
+                text = theme.getPrimaryText();
+                border = theme.getPrimaryBorder();
+        }
+
+        g.setColor(background);
+        g.fillRect(r.x, r.y, r.width, r.height);
+
+        g.setColor(border);
+        for(int i = 0; i < BORDER_WIDTH; i++)
+            g.drawRect(r.x + i, r.y + i, r.width - 1 - 2 * i, r.height - 1 - 2 * i);
+
+        int x = r.x + BORDER_WIDTH;
+        int y = r.y + BORDER_WIDTH;
+        int width = r.width - 2 * BORDER_WIDTH;
+        int height = r.height - 2 * BORDER_WIDTH;
+
+        if(!cell.showNotes) {
+            int value = cell.cell.getValue();
+            if(value != 0) GLYPHS.draw(g, value, valueFont, text, background, x, y, width, height);
+            return;
+        }
+
+        // Notes are laid out in a 3x3 grid, 1 to 9 from the top left.
+        for(int note : cell.cell.getPossibleValues()) {
+            int noteRow = (note - 1) / 3;
+            int noteCol = (note - 1) % 3;
+            int noteX = x + noteCol * width / 3;
+            int noteY = y + noteRow * height / 3;
+            GLYPHS.draw(
+                g, note, noteFont, text, background, noteX, noteY,
+                x + (noteCol + 1) * width / 3 - noteX,
+                y + (noteRow + 1) * height / 3 - noteY
+            );
+        }
+    }
+
+    /**
+     * Mark the given cell as changed, to be repainted once the current event
+     * is handled if its look changed.
+     * 
+     * @param cell
+     * @param changed true if the value or notes of the cell changed, or
+     *                false if only its style may have changed
+     */
+    private void invalidate(CanvasCell cell, boolean changed) {
+        cell.changed |= changed;
+        if(cell.dirty) return;
+
+        cell.dirty = true;
+        if(dirty.isEmpty()) EventQueue.invokeLater(this::repaintDirty);
+        dirty.add(cell);
+    }
+
+    /**
+     * Repaint the union of the changed cells whose look is different from
+     * when they were last repainted.
+     */
+    private void repaintDirty() {
+        boolean damaged = false;
+        for(CanvasCell cell : dirty) {
+            int style = cell.style();
+            if(cell.changed || style != cell.shownStyle) {
+                cellBounds(cell.cell.getRow(), cell.cell.getCol(), bounds);
+                if(damaged) damage.add(bounds);
+                else damage.setBounds(bounds);
+                damaged = true;
+            }
+
+            cell.shownStyle = style;
+            cell.changed = false;
+            cell.dirty = false;
+        }
+        dirty.clear();
+
+        if(damaged) repaint(damage.x, damage.y, damage.width, damage.height);
+    }
+
+    /**
+     * The view of a single cell of the canvas, with the same behavior as a
+     * CellGUI.
+     */
+    private class CanvasCell implements CellView {
+        private final Cell cell;
+        private boolean noteMode; // true to enter notes, or enter values
+        private boolean showNotes; // true to show the notes, or the value
+        private boolean selected = false; // true if the cell is part of the selection
+        private boolean hovered = false; // true if the mouse is over the cell
+        private boolean incorrect = false; // true if the cell has an invalid value
+
+        // The repaint state of the cell, see invalidate().
+        private int shownStyle = DEFAULT;
+        private boolean changed = false;
+        private boolean dirty = false;
+
+        /**
+         * Create a new CanvasCell for the given cell. Blank cells show their
+         * notes.
+         *
+         * @param cell
+         * @param noteMode
+         */
+        CanvasCell(Cell cell, boolean noteMode) {
+            this.cell = cell;
+            this.noteMode = noteMode;
+            this.showNotes = cell.getValue() == 0;
+        }
+
+        /**
+         * Get the style the cell is painted with.
+         *
+         * @return int
+         */
+        int style() {
+            if(incorrect) return ERROR;
+            return selected || hovered ? HIGHLIGHTED : DEFAULT;
+        }
+
+        /**
+         * Get the underlying Cell object.
+         *
+         * @return Cell
+         */
+        @Override
+        public Cell getCell() {
+            return cell;
+        }
+
+        /**
+         * Set the value of the underlying Cell object, without checking it.
+         *
+         * @param value
+         */
+        @Override
+        public void setValue(int value) {
+            cell.setValue(value, false);
+            invalidate(this, true);
+        }
+
+        /**
+         * Set the value of the underlying Cell object, and highlight it if it
+         * is not the expected value.
+         *
+         * @param value
+         * @param expected
+         */
+        @Override
+        public void setValue(int value, int expected) {
+            cell.setValue(value, value == expected);
+            if(value != expected) incorrect = true;
+            invalidate(this, true);
+        }
+
+        /**
+         * Remove the value of the underlying Cell object.
+         */
+        @Override
+        public void removeValue() {
+            cell.setValue(0, false);
+            incorrect = false;
+            invalidate(this, true);
+        }
+
+        /**
+         * Add a possible value to the cell, and show its notes.
+         *
+         * @param value
+         */
+        @Override
+        public void addPossibleValue(int value) {
+            cell.addPossibleValue(value);
+            noteMode = true;
+            showNotes = true;
+            invalidate(this, true);
+        }
+
+        /**
+         * Get the status of the cell in notes mode.
+         *
+         * @return boolean
+         */
+        @Override
+        public boolean isInNotesMode() {
+            return noteMode;
+        }
+
+        /**
+         * Toggle the mode of the cell between value and note.
+         */
+        @Override
+        public void setNoteMode() {
+            if(cell.isInitValue()) return;
+
+            showNotes = !noteMode;
+            noteMode = !noteMode;
+            invalidate(this, true);
+        }
+
+        /**
+         * Set if the cell is part of the selection.
+         *
+         * @param selected
+         */
+        @Override
+        public void setSelected(boolean selected) {
+            this.selected = selected;
+            invalidate(this, false);
+        }
+
+        /**
+         * Set if the mouse is over the cell.
+         *
+         * @param hovered
+         */
+        @Override
+        public void setHovered(boolean hovered) {
+            this.hovered = hovered;
+            invalidate(this, false);
+        }
+
+        /**
+         * Repaint the notes of the cell, if it shows them.
+         */
+        @Override
+        public void updateNotes() {
+            if(cell.getValue() != 0 || !showNotes) return;
+
+            invalidate(this, true);
+        }
+
+        /**
+         * Set the fonts of the values and notes of every cell.
+         *
+         * @param valueFont
+         * @param noteFont
+         */
+        @Override
+        public void setFonts(Font valueFont, Font noteFont) {
+            BoardCanvas.this.valueFont = valueFont;
+            BoardCanvas.this.noteFont = noteFont;
+            repaint();
+        }
+    }
+}
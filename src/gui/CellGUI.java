@@ -3,7 +3,8 @@ package gui;
 // GUI imports
 import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.swing.border.LineBorder;
+import javax.swing.border.Border;
+import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.GridLayout;
@@ -14,25 +15,38 @@ import gui.backend.Settings;
 import gui.backend.Theme;
 
 /**
- * GUI representation of a single cell in the Sudoku grid.
+ * GUI representation of a single cell in the Sudoku grid, as a panel with
+ * a label for the value and a label for every note.
+ *
+ * Style changes, such as highlighting the cell, only repaint the cell, as
+ * its layout stays the same. Only changes to its content revalidate it.
+ *
+ * The note labels are only created once the cell has a note to show, and
+ * are then reused for every note edit, so cells with a value or without
+ * notes have no note labels at all. They are released once the cell has a
+ * confirmed value.
+ *
+ * @see BoardCanvas for a Board painted by a single component.
  */
-class CellGUI extends JPanel {
+class CellGUI extends JPanel implements CellView {
     // GUI fields
     private GridLayout noteLayout = new GridLayout(3, 3);
     private GridLayout valueLayout = new GridLayout(0, 1);
     private JPanel internalPanel = new JPanel(valueLayout);
         private JLabel valueLabel;
-        private Label[] notesLabels = new Label[9];
+        private Label[] notesLabels; // created with the first note
 
     // GUI data fields read from a Settings object.
     private Dimension size;
     private Theme theme;
-    private Font font;
+    private Font valueFont;
+    private Font noteFont;
 
     // Data fields
     Cell cell;
     private boolean noteMode; // true to display notes, or display value
-    private boolean selected = false; // true if the cell is selected
+    private boolean selected = false; // true if the cell is part of the selection
+    private boolean hovered = false; // true if the mouse is over the cell
     private boolean incorrect = false; // true if the cell has an invalid value
 
     /**
@@ -50,30 +64,38 @@ class CellGUI extends JPanel {
         // Set the initial state of the cell based off the settings.
         noteMode = s.getCellGUIStartMode();
         theme = s.getTheme();
-        font = s.getFont();
-        selected = false;
+        valueFont = theme.getValueFont(s.getFont());
+        noteFont = theme.getNoteFont(s.getFont());
         size = s.getCellDimensions();
 
         // Set the layout and size of the cell.
         setFocusable(true);
         setLayout(valueLayout);
-        valueLabel = new Label("", theme, font);
+        valueLabel = new Label("", theme, valueFont);
         setSize(size);
         internalPanel.setSize(size);
         defaultStyle();
 
         // Populate the cell with the appropriate value or notes.
         if(cell.getValue() == 0) {
-            internalPanel.setLayout(noteLayout);
-            generateNotes(true);
+            showNotes();
         } else {
-            internalPanel.setLayout(valueLayout);
             valueLabel.setText(Integer.toString(cell.getValue()));
-            internalPanel.add(valueLabel);
+            showValue();
         }
         add(internalPanel);
     }
 
+    /**
+     * Get the underlying Cell object.
+     * 
+     * @return Cell
+     */
+    @Override
+    public Cell getCell() {
+        return cell;
+    }
+
     /**
      * Get the value of the underlying Cell object.
      * 
@@ -92,9 +114,8 @@ class CellGUI extends JPanel {
      * 
      * @param value
      */
+    @Override
     public void setValue(int value) {
-        if(!selected) return;
-
         cell.setValue(value, false);
         // Update the GUI with the actual Cell value (unchanged if invalid)
         valueLabel.setText(Integer.toString(cell.getValue()));
@@ -111,9 +132,8 @@ class CellGUI extends JPanel {
      * 
      * @param value
      */
+    @Override
     public void setValue(int value, int expected) {
-        if(!selected) return;
-
         cell.setValue(value, value == expected);
         valueLabel.setText(Integer.toString(cell.getValue()));
 
@@ -121,15 +141,17 @@ class CellGUI extends JPanel {
             incorrect = true;
             valueLabel.setText(Integer.toString(value));
             errorStyle();
-        } else refresh();
+        } else {
+            releaseNotes();
+            refresh();
+        }
     }
 
     /**
      * Remove the value of the underlying Cell object.
      */
+    @Override
     public void removeValue() {
-        if(!selected) return;
-
         cell.setValue(0, false);
         if(!cell.isInitValue())
             valueLabel.setText("");
@@ -143,15 +165,13 @@ class CellGUI extends JPanel {
      * 
      * @param value
      */
+    @Override
     public void addPossibleValue(int value) {
-        if(!selected) return;
-
         cell.addPossibleValue(value);
-        internalPanel.removeAll();
-        internalPanel.setLayout(noteLayout);
         noteMode = true;
-        generateNotes(true);
+        showNotes();
         highlightedStyle();
+        refresh();
     }
 
     /**
@@ -163,11 +183,24 @@ class CellGUI extends JPanel {
         cell.removePossibleValue(value);
     }
 
+    /**
+     * Show the notes of the underlying Cell again, for eg. after they were
+     * filled in. Nothing is done if the cell shows its value.
+     */
+    @Override
+    public void updateNotes() {
+        if(cell.getValue() != 0 || internalPanel.getLayout() != noteLayout) return;
+
+        showNotes();
+        refresh();
+    }
+
     /**
      * Get the status of the cell in notes mode.
      * 
      * @return
      */
+    @Override
     public boolean isInNotesMode() {
         return noteMode;
     }
@@ -176,33 +209,65 @@ class CellGUI extends JPanel {
      * Toggle the mode of the cell between value and note, including the
      * layout and visual content of the cell.
      */
+    @Override
     public void setNoteMode() {
         if(cell.isInitValue()) return;
 
-        if(noteMode) {
-            internalPanel.removeAll();
-            internalPanel.setLayout(valueLayout);
-            internalPanel.add(valueLabel);
-        } else {
-            internalPanel.setLayout(noteLayout);
-            generateNotes(true);
-        }
+        if(noteMode) showValue();
+        else showNotes();
         
         refresh();
         noteMode = !noteMode;
     }
 
     /**
-     * Select the cell, and style it for error, highlight, or default.
+     * Set the fonts of the value and the notes of the cell.
+     * 
+     * @param valueFont
+     * @param noteFont
      */
-    public void select() {
-        selected = !selected;
-        if(incorrect) {
-            errorStyle();
-            return;
-        } else if(!selected)
-            defaultStyle();
-        else highlightedStyle();
+    @Override
+    public void setFonts(Font valueFont, Font noteFont) {
+        this.valueFont = valueFont;
+        this.noteFont = noteFont;
+
+        valueLabel.setFont(valueFont);
+        if(notesLabels != null) {
+            for(Label note : notesLabels) note.setFont(noteFont);
+        }
+    }
+
+    /**
+     * Set if the cell is part of the selection, and restyle it.
+     *
+     * @param selected
+     */
+    @Override
+    public void setSelected(boolean selected) {
+        this.selected = selected;
+        restyle();
+    }
+
+    /**
+     * Set if the mouse is over the cell, and restyle it.
+     *
+     * @param hovered
+     */
+    @Override
+    public void setHovered(boolean hovered) {
+        this.hovered = hovered;
+        restyle();
+    }
+
+    /**
+     * Style the cell for highlight or default, from its selection and hover.
+     * An incorrect cell keeps its error style, so it is left untouched.
+     */
+    private void restyle() {
+        if(incorrect) return;
+
+        if(selected || hovered) highlightedStyle();
+        else defaultStyle();
     }
 
     /**
@@ -211,21 +276,9 @@ class CellGUI extends JPanel {
      * @see Theme.java
      */
     private void defaultStyle() {
-        setBackground(theme.getPrimaryBackground());
-        setForeground(theme.getPrimaryText());
-        internalPanel.setBackground(theme.getPrimaryBackground());
-        internalPanel.setForeground(theme.getPrimaryText());
-        valueLabel.setForeground(theme.getPrimaryText());
-        setBorder(new LineBorder(theme.getPrimaryBorder(), 2));
-
-        for(int i = 0; i < 9; i++) {
-            if(notesLabels[i] != null) {
-                notesLabels[i].setBackground(theme.getPrimaryBackground());
-                notesLabels[i].setForeground(theme.getPrimaryText());
-            }
-        }
-
-        refresh();
+        applyStyle(
+            theme.getPrimaryBackground(), theme.getPrimaryText(), theme.getCellBorder()
+        );
     }
 
     /**
@@ -234,21 +287,36 @@ class CellGUI extends JPanel {
      * @see Theme.java
      */
     private void highlightedStyle() {
-        setBackground(theme.getSecondaryBackground());
-        setForeground(theme.getSecondaryText());
-        internalPanel.setBackground(theme.getSecondaryBackground());
-        internalPanel.setForeground(theme.getSecondaryText());
-        valueLabel.setForeground(theme.getSecondaryText());
-        setBorder(new LineBorder(theme.getSecondaryBorder(), 2));
-
-        for(int i = 0; i < 9; i++) {
-            if(notesLabels[i] != null) {
-                notesLabels[i].setBackground(theme.getSecondaryBackground());
-                notesLabels[i].setForeground(theme.getSecondaryText());
-            }
+        applyStyle(
+            theme.getSecondaryBackground(), theme.getSecondaryText(),
+            theme.getSelectedCellBorder()
+        );
+    }
+
+    /**
+     * Style the CellGUI and its labels with the given colors and the shared
+     * Border from the Theme. The labels are transparent, so only their text
+     * color is set.
+     * 
+     * The components repaint themselves if their colors or border changed.
+     * The borders of the Theme have the same insets, so the layout of the
+     * cell is unchanged and it is not revalidated.
+     * 
+     * @param background
+     * @param text
+     * @param border
+     */
+    private void applyStyle(Color background, Color text, Border border) {
+        setBackground(background);
+        setForeground(text);
+        internalPanel.setBackground(background);
+        internalPanel.setForeground(text);
+        valueLabel.setForeground(text);
+        setBorder(border);
+
+        if(notesLabels != null) {
+            for(Label note : notesLabels) note.setForeground(text);
         }
-        
-        refresh();
     }
 
     /**
@@ -259,13 +327,12 @@ class CellGUI extends JPanel {
     private void errorStyle() {
         valueLabel.setForeground(theme.getErrorText());
         internalPanel.setBackground(theme.getErrorBackground());
-        setBorder(new LineBorder(theme.getErrorBorder(), 2));
-
-        refresh();
+        setBorder(theme.getErrorCellBorder());
     }
 
     /**
-     * Helper method to repaint and revalidate the internal panel and CellGUI.
+     * Helper method to repaint and revalidate the internal panel and CellGUI,
+     * after its content changed.
      */
     private void refresh() {
         internalPanel.repaint();
@@ -275,42 +342,60 @@ class CellGUI extends JPanel {
     }
 
     /**
-     * Create the GUI components for the cell's notes.
-     * 
-     * If autoFill is true, then the CellGUI will automatically switch to
-     * noteMode.
+     * Show the value label of the cell in the internal panel.
+     */
+    private void showValue() {
+        internalPanel.removeAll();
+        internalPanel.setLayout(valueLayout);
+        internalPanel.add(valueLabel);
+    }
+
+    /**
+     * Show the notes of the underlying Cell in the internal panel.
      * 
-     * @param autoFill
+     * The note labels are created the first time the cell has a note, and
+     * only their text is updated afterwards. Until then, the internal panel
+     * stays empty, which looks the same as nine blank labels.
      */
-    private void generateNotes(boolean autoFill) {
+    private void showNotes() {
         int[] possibleValues = cell.getPossibleValues();
-        
-        // Prepare the internalPanel for noteMode.
-        if(autoFill) internalPanel.removeAll();
+        if(internalPanel.getLayout() != noteLayout) {
+            internalPanel.removeAll();
+            internalPanel.setLayout(noteLayout);
+        }
+
+        if(notesLabels == null) {
+            if(possibleValues.length == 0) return;
 
-        // Handle cases where there are no possible values stored.
-        if(possibleValues.length == 0) {
+            notesLabels = new Label[9];
             for(int i = 0; i < 9; i++) {
-                notesLabels[i] = new Label("", theme, font);
-                
-                if(autoFill) internalPanel.add(notesLabels[i]);
+                notesLabels[i] = new Label("", theme, noteFont);
+                notesLabels[i].setForeground(getForeground());
             }
-            return;
         }
 
+        // The internal panel holds either no labels or all of them.
+        if(internalPanel.getComponentCount() == 0) {
+            for(Label note : notesLabels) internalPanel.add(note);
+        }
+
+        // Update the text of every label, blank if it is not a note.
         int index = 0;
-        // Add the noted possible values to the cell.
-        for(int i = 1; i <= 9 && index < possibleValues.length; i++) {
-            // Add the possible value if it exists.
-            if(possibleValues[index] == i) {
-                notesLabels[i - 1] = new Label(Integer.toString(i), theme, font);
-                index++;
-            
-            // Otherwise, add a blank value.
-            } else
-                notesLabels[i - 1] = new Label("", theme, font);
-
-            if(autoFill) internalPanel.add(notesLabels[i - 1]);
+        for(int i = 1; i <= 9; i++) {
+            boolean noted = index < possibleValues.length && possibleValues[index] == i;
+            if(noted) index++;
+            notesLabels[i - 1].setText(noted ? Integer.toString(i) : "");
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Release the note labels once the cell has a confirmed value, as the
+     * underlying Cell has no notes anymore.
+     */
+    private void releaseNotes() {
+        if(notesLabels == null) return;
+
+        if(internalPanel.getLayout() == noteLayout) internalPanel.removeAll();
+        notesLabels = null;
+    }
+}
@@ -0,0 +1,97 @@
+package gui;
+
+import java.awt.Font;
+
+import gui.backend.Cell;
+
+/**
+ * The view of a single cell of the Board, as used by the Board for input and
+ * highlighting.
+ *
+ * There are two kinds of views: a CellGUI is a Swing panel of its own per
+ * cell, and the cells of a BoardCanvas are painted by a single component.
+ * Both behave the same, so the Board works with either.
+ *
+ * The Board decides which cell receives input, so a view applies every edit
+ * it is given. Being selected or hovered only changes how a view looks.
+ */
+interface CellView {
+    /**
+     * Get the underlying Cell object.
+     *
+     * @return Cell
+     */
+    Cell getCell();
+
+    /**
+     * Set the value of the underlying Cell object, without checking it.
+     *
+     * @param value
+     */
+    void setValue(int value);
+
+    /**
+     * Set the value of the underlying Cell object, and highlight it if it
+     * is not the expected value.
+     *
+     * @param value
+     * @param expected
+     */
+    void setValue(int value, int expected);
+
+    /**
+     * Remove the value of the underlying Cell object.
+     */
+    void removeValue();
+
+    /**
+     * Add a possible value to the cell, and show its notes.
+     *
+     * @param value
+     */
+    void addPossibleValue(int value);
+
+    /**
+     * Get the status of the cell in notes mode.
+     *
+     * @return boolean
+     */
+    boolean isInNotesMode();
+
+    /**
+     * Toggle the mode of the cell between value and note, including what
+     * the cell shows.
+     */
+    void setNoteMode();
+
+    /**
+     * Set if the cell is part of the selection, as the selected cell or in
+     * its row, column, or box. A cell is highlighted while it is part of the
+     * selection or hovered, unless it shows an error.
+     *
+     * @param selected
+     */
+    void setSelected(boolean selected);
+
+    /**
+     * Set if the mouse is over the cell. A cell is highlighted while it is
+     * part of the selection or hovered, unless it shows an error.
+     *
+     * @param hovered
+     */
+    void setHovered(boolean hovered);
+
+    /**
+     * Show the notes of the underlying Cell again, for eg. after they were
+     * filled in. Nothing is done if the cell shows its value.
+     */
+    void updateNotes();
+
+    /**
+     * Set the fonts of the value and the notes of the cell.
+     *
+     * @param valueFont
+     * @param noteFont
+     */
+    void setFonts(Font valueFont, Font noteFont);
+}
@@ -9,7 +9,7 @@ import java.io.File;
 
 /**
  * A custom FileChooser with the appropriate styling for the Sudoku app.
- * Additionally, this FileChooser only allows .sdku files to be selected.
+ * Additionally, this FileChooser only allows puzzle files to be selected.
  */
 public class FileChooser extends JFileChooser {
     /**
@@ -47,20 +47,21 @@ public class FileChooser extends JFileChooser {
     }
 
     /**
-     * A custom FileFilter to only allow .sdku files to be selected.
+     * A custom FileFilter to only allow puzzle files to be selected.
      */
     private class Filter extends FileFilter {
         public boolean accept(File f) {
+            if(f.isDirectory()) return true;
+
             String name = f.getName().toLowerCase();
-            if(name.length() > 5) {
-                return name.substring(name.length() - 5).equals(".sdku")
-                    || !f.isDirectory();
-            }
-            return false;
+            return name.endsWith(".sdku") || name.endsWith(".sdk")
+                || name.endsWith(".ss") || name.endsWith(".txt")
+                || name.endsWith(".sdkb") || name.endsWith(".sdks")
+                || name.endsWith(".gz");
         }
 
         public String getDescription() {
-            return "Sudoku Puzzle Files (*.sdku)";
+            return "Sudoku Puzzle Files (*.sdku, *.sdk, *.ss, *.txt, *.sdkb, *.sdks, *.gz)";
         }
     }
 }
\ No newline at end of file
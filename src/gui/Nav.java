@@ -7,12 +7,23 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 
 // GUI imports
+import java.awt.Font;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 // Processing & backend imports
+import gui.backend.AutoSaver;
 import gui.backend.Cell;
+import gui.backend.Generator;
+import gui.backend.GridModel;
+import gui.backend.GzipPuzzleReader;
+import gui.backend.PuzzleCollection;
+import gui.backend.PuzzleContainer;
+import gui.backend.PuzzleIndex;
+import gui.backend.PuzzleParser;
+import gui.backend.SaveFile;
 import gui.backend.Settings;
-import gui.backend.SudokuChecker;
 
 // Unused imports
 //import javax.swing.JLabel;
@@ -43,15 +54,28 @@ import gui.backend.SudokuChecker;
  *      - toggleable number pad instead of using keyboard inputs.
  */
 public class Nav extends JPanel {
-    @SuppressWarnings("unused")
-    private SudokuChecker sc;
+    // The number of clues to dig a new, random puzzle down to.
+    private static final int RANDOM_FILE_CLUES = 26;
 
     private Settings s;
 
     private File f;
     private Board b;
+    private ComboBox<String> fileOptions;
     private Cell[][] grid;
 
+    // The open file of many puzzles, if any, and the ID of the shown puzzle.
+    private PuzzleCollection collection;
+    private long puzzleId;
+
+    // The open save file, if any, the AutoSaver journaling every move to it
+    // while auto-save is on, and the model of the Board it listens to.
+    private SaveFile save;
+    private AutoSaver saver;
+    private GridModel watched;
+    private final GridModel.Listener journal = this::cellChanged;
+    private boolean submitQueued = false;
+
     /**
      * Create a new Nav in a command-line interface. This is intended for
      * debugging rather than practical use.
@@ -133,20 +157,7 @@ public class Nav extends JPanel {
      */
     public void setBoard(Board b) {
         this.b = b;
-    }
-
-    /**
-     * Set the SudokuChecker object for the Nav bar.
-     * 
-     * This is necessary for the Nav bar to be able to interact with the
-     * SudokuChecker object for the solve button.
-     * 
-     * In the future, the SudokuChecker object is also used for hints.
-     * 
-     * This shouldn't be necessary to change once the program is running.
-     */
-    public void setChecker(SudokuChecker sc) {
-        this.sc = sc;
+        watchModel();
     }
 
     /**
@@ -179,11 +190,21 @@ public class Nav extends JPanel {
 
         // Add the ComboBox for the file options, the elapsed time label, and
         // the solve button to the Nav Panel.
-        add(createFileOptions());
+        fileOptions = createFileOptions();
+        add(fileOptions);
         //add(elapsedTime);
         //add(solve);
     }
 
+    /**
+     * Use the given font, for eg. once the font from the Settings is loaded.
+     * 
+     * @param font
+     */
+    public void updateFont(Font font) {
+        if(fileOptions != null) fileOptions.setFont(font);
+    }
+
     /**
      * Create the ComboBox for the file options.
      * 
@@ -196,6 +217,9 @@ public class Nav extends JPanel {
             fileOptions.addItem("Open");
             fileOptions.addItem("Save");
             fileOptions.addItem("Save As");
+            fileOptions.addItem("Next Puzzle");
+            fileOptions.addItem("Previous Puzzle");
+            fileOptions.addItem("Go To Puzzle");
             fileOptions.addItem("Exit");
 
         fileOptions.addActionListener(e -> {
@@ -214,6 +238,16 @@ public class Nav extends JPanel {
                     saveFile(true);
                     break;
                 case 4:
+                    showPuzzle(puzzleId + 1);
+                    break;
+                case 5:
+                    showPuzzle(puzzleId - 1);
+                    break;
+                case 6:
+                    goToPuzzle();
+                    break;
+                case 7:
+                    close();
                     System.exit(0);
                     break;
                 default:
@@ -241,13 +275,17 @@ public class Nav extends JPanel {
                 try {
                     f.createNewFile();
                     
-                    // Create a new, blank .sdku file.
+                    // Create a new, blank .sdku file, in a new grid so the
+                    // previous grid is left untouched.
+                    grid = new Cell[9][9];
                     for(int i = 0; i < 9; i++)
                         for(int j = 0; j < 9; j++)
                             grid[i][j] = new Cell(i, j, 0);
 
                     // Update the Board with the new, blank .sdku puzzle.
+                    closeSave();
                     b.setGrid(grid);
+                    watchModel();
 
                     // Save the file if auto-save is on.
                     if(s.getAutoSave()) saveFile(true);
@@ -258,7 +296,18 @@ public class Nav extends JPanel {
                     // Open the default, pre-downloaded default.sdku file.
                     openFile(s.getDefaultDirectory() + "default");
                 }
+                break;
             case 1:
+                f = new File("new.sdku");
+
+                // Create a new, random puzzle with a unique solution.
+                grid = new Generator(System.nanoTime()).generate(RANDOM_FILE_CLUES);
+                closeSave();
+                b.setGrid(grid);
+                watchModel();
+
+                if(s.getAutoSave()) saveFile(true);
+                break;
             case 2:
             default:
         }
@@ -286,6 +335,7 @@ public class Nav extends JPanel {
             createGrid(f);
         }
         b.setGrid(grid);
+        watchModel();
     }
 
     /**
@@ -296,8 +346,12 @@ public class Nav extends JPanel {
      * @param String
      */
     private void openFile(String filename) {
-    	//file path is not working for everyone had to append src/ to run
-        File f = new File("resources/" + filename + ".sdku");
+        // A path to an existing file, for eg. a .sdkb container, is opened
+        // directly, otherwise the name of a .sdku file in resources.
+        File f = new File(filename);
+        if(!f.isFile())
+            //file path is not working for everyone had to append src/ to run
+            f = new File("resources/" + filename + ".sdku");
         // If the file does not exist, print an error message and return.
         if(f == null || !f.exists() || f.isDirectory() || !f.canRead()) {
             System.out.println(
@@ -322,26 +376,143 @@ public class Nav extends JPanel {
     }
 
     /**
-     * Save the currently open .sdku file with any changes the user has made.
-     * This needs to pull the current state of the grid from the Board JPanel.
+     * Show the puzzle with the given ID of the open file of many puzzles.
+     * Nothing is done if no such file is open or if there is no such puzzle.
+     *
+     * @param id
+     */
+    private void showPuzzle(long id) {
+        if(collection == null || id < 0 || id >= collection.size()) return;
+
+        try {
+            grid = collection.getGrid(id);
+            puzzleId = id;
+            closeSave();
+            b.setGrid(grid);
+            watchModel();
+        } catch(IOException e) {
+            System.out.println("Unable to read puzzle " + (id + 1) + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ask the user for a puzzle number of the open file of many puzzles, and
+     * show that puzzle. Puzzles are numbered from 1 for the user.
+     */
+    private void goToPuzzle() {
+        if(collection == null) return;
+
+        String input = JOptionPane.showInputDialog(
+            this, "Puzzle number (1 - " + collection.size() + "):", puzzleId + 1
+        );
+        if(input == null) return;
+
+        try {
+            showPuzzle(Long.parseLong(input.trim()) - 1);
+        } catch(NumberFormatException e) {
+            System.out.println("Invalid puzzle number " + input + ".");
+        }
+    }
+
+    /**
+     * Save the current grid of the Board, with the user's values and notes,
+     * to a .sdks save file, see SaveFile.
      * 
      * If called from 'Save' option, then saveAs should be false.
      * If called from 'Save As' option, then saveAs should be true.
      * 
-     * 'Save' will simply overwrite the existing file that was opened,
-     * while 'Save As' while prompt the user to select or create a file.
+     * 'Save' writes a new checkpoint of the open save file, while 'Save As'
+     * prompts the user to select or create a file.
      * 
-     * 'Save As' functionality is the default behavior for new .sdku files
-     * created. Therefore, if the filename is 'new.sdku', then saveAs will
-     * be made true.
+     * 'Save As' functionality is the default behavior for new files, and for
+     * puzzle files that are not save files, so the original puzzle file is
+     * never overwritten.
      * 
      * @param boolean
      */
     private void saveFile(boolean saveAs) {
-        if(f.getName().equals("new.sdku"))
+        if(save == null || f == null || f.getName().equals("new.sdku"))
             saveAs = true;
-        // TODO: Get the current Cell[][] from the Board JPanel
-        // TODO: Write to a file.
+
+        File target = save == null ? null : save.getFile();
+        if(saveAs) {
+            FileChooser fc = new FileChooser(new File(s.getDefaultDirectory()));
+            if(fc.showSaveDialog(this) != FileChooser.APPROVE_OPTION) return;
+
+            target = fc.getSelectedFile();
+            if(!SaveFile.isSaveFile(target))
+                target = new File(target.getPath() + SaveFile.EXTENSION);
+        }
+
+        try {
+            if(save != null && save.getFile().equals(target)) {
+                save.checkpoint(b.getModel().snapshot());
+            } else {
+                closeSave();
+                startSave(SaveFile.create(target, b.getModel().getCells()));
+                f = target;
+            }
+        } catch(IOException e) {
+            System.out.println("Unable to save " + target.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Submit the grid to the AutoSaver after a change of a Cell while
+     * auto-save is on. The changes of one event, for eg. filling every note,
+     * are submitted as a single snapshot once the event is handled.
+     *
+     * @param cell
+     * @param valueChanged
+     */
+    private void cellChanged(Cell cell, boolean valueChanged) {
+        if(saver == null || !s.getAutoSave() || submitQueued) return;
+
+        submitQueued = true;
+        SwingUtilities.invokeLater(() -> {
+            submitQueued = false;
+            if(saver != null && watched != null) saver.submit(watched.snapshot());
+        });
+    }
+
+    /**
+     * Listen to the model of the Board, to journal the moves of its grid.
+     * The Board creates a new model whenever a new grid is set.
+     */
+    private void watchModel() {
+        if(b == null || b.getModel() == watched) return;
+
+        if(watched != null) watched.removeListener(journal);
+        watched = b.getModel();
+        watched.addListener(journal);
+    }
+
+    /**
+     * Open the given save file and start auto-saving to it.
+     *
+     * @param save
+     */
+    private void startSave(SaveFile save) {
+        this.save = save;
+        saver = new AutoSaver(save, s.getAutoSaveFrequency());
+    }
+
+    /**
+     * Close the open save file, if any, once the AutoSaver saved the pending
+     * changes.
+     */
+    private void closeSave() {
+        if(save == null) return;
+
+        saver.close();
+        saver = null;
+
+        try {
+            save.close();
+        } catch(IOException e) {
+            System.out.println("Unable to close " + save.getFile().getName() + ".");
+        }
+        save = null;
     }
 
     /**
@@ -357,19 +528,25 @@ public class Nav extends JPanel {
      * Update the loaded grid with the current version with any changes the
      * user has made.
      *
-     * If the user has enabled auto-save in Settings, then save the file.
-     * 
-     * In the future, an optimization could be made where a different data
-     * structure is used to pass only the changes the player has made within
-     * the last x minutes, for eg. {row, col, value, noteValues[]}. Given
-     * the size of a standard Sudoku board however, this may be an irrelevant
-     * and unnecessary optimization.
+     * If the user has enabled auto-save in Settings and the grid is the one
+     * on the Board, then submit it to the AutoSaver. Single moves made on the
+     * Board do not need this, since they are submitted as they are made.
      *
      * @param Cell[][]
      */
     public void updateLoadedGrid(Cell[][] grid) {
         this.grid = grid;
-        if(s.getAutoSave()) saveFile(true);
+        if(s.getAutoSave() && saver != null && watched != null && watched.getCells() == grid)
+            saver.submit(watched.snapshot());
+    }
+
+    /**
+     * Save any pending changes and close the open files, for eg. before the
+     * app exits.
+     */
+    public void close() {
+        closeSave();
+        closeCollection();
     }
 
     /**
@@ -379,35 +556,110 @@ public class Nav extends JPanel {
      * @param File
      */
     private void createGrid(File f) {
-        try (Scanner in = new Scanner(f)) {
-            // Create a new 9x9 grid of Cells.
-            Cell[][] grid = new Cell[9][9];
-            
-            // Read in the file line by line.
-            for(int i = 0; i < 9; i++) {
-
-                // Read in the line and create a new Cell for each character.
-                String line = in.nextLine();
-                for(int j = 0; j < 9; j++) {
-
-                    // If the character is a period, the cell is empty.
-                    if(line.charAt(j) == '.') {
-                        grid[i][j] = new Cell(i, j, 0);
-                        continue;
-                    }
-                    
-                    // Otherwise, the character is a digit.
-                    int value = Character.getNumericValue(line.charAt(j));
-                    grid[i][j] = new Cell(i, j, value);
-                }
+        closeCollection();
+        closeSave();
+        try {
+            // Save files keep being saved to as the user plays.
+            if(SaveFile.isSaveFile(f) && f.isFile()) {
+                startSave(SaveFile.open(f));
+                this.grid = save.toCells();
+                return;
             }
 
-            this.grid = grid;
+
+            // Files of many puzzles are opened at their first puzzle.
+            collection = openCollection(f);
+            if(collection != null) {
+                puzzleId = 0;
+                this.grid = collection.getGrid(0);
+                return;
+            }
+
+            this.grid = readGrid(f);
 
         // If the file is not found, print an error message and return.
         } catch (FileNotFoundException e) {
             newFile();
             return;
+
+        // If the file is malformed, keep the current grid if there is one.
+        } catch (IOException e) {
+            System.out.println("Unable to read " + f.getName() + ": " + e.getMessage());
+            if(grid != null) return;
+
+            grid = new Cell[9][9];
+            for(int i = 0; i < 9; i++)
+                for(int j = 0; j < 9; j++)
+                    grid[i][j] = new Cell(i, j, 0);
+        }
+    }
+
+    /**
+     * Close the open file of many puzzles, if any.
+     */
+    private void closeCollection() {
+        if(collection == null) return;
+
+        try {
+            collection.close();
+        } catch(IOException e) {
+            System.out.println("Unable to close " + f.getName() + ".");
+        }
+        collection = null;
+    }
+
+    /**
+     * Open the given file for random access if it holds many puzzles, ie. if
+     * it is a .sdkb container or a text file with one puzzle per line. Text
+     * files are indexed the first time they are opened. Gzip files cannot be
+     * indexed, so they are read as a single puzzle by readGrid().
+     *
+     * @param File
+     * @return PuzzleCollection, or null if the file holds a single puzzle
+     * @throws IOException
+     */
+    public static PuzzleCollection openCollection(File f) throws IOException {
+        if(!f.isFile()) throw new FileNotFoundException(f.getPath());
+
+        PuzzleCollection collection = null;
+        if(PuzzleContainer.isContainer(f))
+            collection = new PuzzleContainer(f);
+        else if(!GzipPuzzleReader.isGzip(f) && PuzzleParser.detectFormat(f) == PuzzleParser.LINE)
+            collection = PuzzleIndex.open(f);
+
+        if(collection != null && collection.size() == 0) {
+            collection.close();
+            throw new IOException(f.getName() + " holds no puzzles");
         }
+
+        return collection;
+    }
+
+    /**
+     * Read a 9x9 grid of Cells from the given puzzle file. The format is
+     * detected from the file (.sdku, .sdk, .ss, .sdkb, or one puzzle per
+     * line), and the first puzzle in the file is read. The grid of a .sdks
+     * save file keeps the user's values and notes.
+     *
+     * @param File
+     * @return Cell[][]
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static Cell[][] readGrid(File f) throws IOException {
+        if(!f.isFile()) throw new FileNotFoundException(f.getPath());
+
+        if(SaveFile.isSaveFile(f)) return SaveFile.load(f);
+
+        // Binary containers open at their first puzzle.
+        if(PuzzleContainer.isContainer(f)) {
+            try(PuzzleContainer container = new PuzzleContainer(f)) {
+                if(container.size() == 0)
+                    throw new IOException(f.getName() + " holds no puzzles");
+                return container.getGrid(0);
+            }
+        }
+
+        return PuzzleParser.toGrid(PuzzleParser.parseFile(f));
     }
 }
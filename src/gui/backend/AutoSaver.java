@@ -0,0 +1,271 @@
+package gui.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The AutoSaver saves a game to its SaveFile on a background thread, so the
+ * Swing event dispatch thread never waits on the disk.
+ *
+ * The GUI submits an immutable GridSnapshot after a change, which only
+ * replaces the pending snapshot and returns. Bursts of changes are coalesced
+ * into a single save: the pending snapshot is written once the user has been
+ * idle for IDLE_DELAY, or once the oldest unsaved change is as old as the
+ * auto-save frequency, so a long burst of edits is still saved regularly.
+ * flush() and close() write the pending snapshot right away, for eg. on exit.
+ *
+ * A save only journals the cells that differ from the saved grid, see
+ * SaveFile.append(GridSnapshot).
+ *
+ * The AutoSaver counts the saves, the snapshots coalesced into a later save,
+ * and the snapshots dropped because a save failed or the AutoSaver was
+ * closed, and measures the latency of every save.
+ */
+public class AutoSaver implements Closeable {
+    // The auto-save frequency used if none is set, in seconds.
+    public static final int DEFAULT_FREQUENCY = 30;
+
+    // The time without changes after which the pending snapshot is saved.
+    private static final long IDLE_DELAY = 1000;
+
+    // The longest time close() waits for the last save.
+    private static final long CLOSE_TIMEOUT = 5000;
+
+    private final SaveFile save;
+    private final long interval;
+    private final Thread thread;
+
+    // The snapshot waiting to be saved, and when the oldest and newest
+    // changes it holds were submitted, in milliseconds.
+    private GridSnapshot pending;
+    private long firstChange;
+    private long lastChange;
+
+    // The number of snapshots submitted, and of the last one saved.
+    private long submitted = 0;
+    private long saved = 0;
+    private boolean flushRequested = false;
+    private boolean closed = false;
+
+    // Statistics, in nanoseconds for the latencies.
+    private long saves = 0;
+    private long coalesced = 0;
+    private long dropped = 0;
+    private long lastLatency = 0;
+    private long maxLatency = 0;
+    private long totalLatency = 0;
+
+    /**
+     * Create a new AutoSaver for the given save file, and start its thread.
+     *
+     * @param save
+     * @param frequency the longest time a change stays unsaved while the user
+     *                  keeps editing, in seconds, or 0 for the default
+     */
+    public AutoSaver(SaveFile save, int frequency) {
+        this.save = save;
+        this.interval = 1000L * (frequency > 0 ? frequency : DEFAULT_FREQUENCY);
+
+        thread = new Thread(this::run, "AutoSaver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Submit a snapshot of the grid to be saved. This never waits on the
+     * disk, so it can be called on every change from the Swing event
+     * dispatch thread.
+     *
+     * @param snapshot
+     */
+    public synchronized void submit(GridSnapshot snapshot) {
+        if(closed) {
+            dropped++;
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if(pending != null) {
+            coalesced++;
+        } else {
+            firstChange = now;
+            notifyAll();
+        }
+
+        pending = snapshot;
+        lastChange = now;
+        submitted++;
+    }
+
+    /**
+     * Save the pending snapshot now, and wait until it is saved.
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void flush() throws InterruptedException {
+        long target = submitted;
+        flushRequested = true;
+        notifyAll();
+
+        while(saved < target && thread.isAlive()) wait();
+    }
+
+    /**
+     * Save the pending snapshot and stop the thread, waiting at most
+     * CLOSE_TIMEOUT for the last save. The SaveFile is not closed.
+     */
+    @Override
+    public void close() {
+        synchronized(this) {
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            thread.join(CLOSE_TIMEOUT);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the number of saves written.
+     *
+     * @return long
+     */
+    public synchronized long getSaves() {
+        return saves;
+    }
+
+    /**
+     * Get the number of snapshots replaced by a newer snapshot before they
+     * were saved.
+     *
+     * @return long
+     */
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Get the number of snapshots lost because their save failed or they
+     * were submitted after close().
+     *
+     * @return long
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Get the latency of the last save, in nanoseconds.
+     *
+     * @return long
+     */
+    public synchronized long getLastLatency() {
+        return lastLatency;
+    }
+
+    /**
+     * Get the highest latency of a save, in nanoseconds.
+     *
+     * @return long
+     */
+    public synchronized long getMaxLatency() {
+        return maxLatency;
+    }
+
+    /**
+     * Get the average latency of a save, in nanoseconds.
+     *
+     * @return long
+     */
+    public synchronized long getAverageLatency() {
+        return saves == 0 ? 0 : totalLatency / saves;
+    }
+
+    /**
+     * Summarize the statistics of the AutoSaver.
+     *
+     * @return String
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format(
+            "Auto-save of %s: %d saves, %d coalesced, %d dropped, " +
+            "latency avg %.2f ms, max %.2f ms",
+            save.getFile().getName(), saves, coalesced, dropped,
+            getAverageLatency() / 1e6, maxLatency / 1e6
+        );
+    }
+
+    /**
+     * Save pending snapshots until closed.
+     */
+    private void run() {
+        try {
+            while(true) {
+                GridSnapshot snapshot;
+                long number;
+                synchronized(this) {
+                    while(true) {
+                        if(pending == null) {
+                            if(closed) return;
+                            wait();
+                            continue;
+                        }
+
+                        long now = System.currentTimeMillis();
+                        long due = Math.min(lastChange + IDLE_DELAY, firstChange + interval);
+                        if(flushRequested || closed || now >= due) break;
+                        wait(due - now);
+                    }
+
+                    snapshot = pending;
+                    number = submitted;
+                    pending = null;
+                    flushRequested = false;
+                }
+
+                write(snapshot, number);
+            }
+        } catch(InterruptedException e) {
+            synchronized(this) {
+                if(pending != null) dropped++;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Save a snapshot, outside of the lock so submit() never waits on it.
+     *
+     * @param snapshot
+     * @param number the number of the snapshot
+     */
+    private void write(GridSnapshot snapshot, long number) {
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            save.append(snapshot);
+        } catch(IOException e) {
+            System.out.println("Unable to auto-save " + save.getFile().getName() + ": " + e.getMessage());
+            failed = true;
+        }
+        long latency = System.nanoTime() - start;
+
+        synchronized(this) {
+            if(failed) {
+                dropped++;
+            } else {
+                saves++;
+                lastLatency = latency;
+                maxLatency = Math.max(maxLatency, latency);
+                totalLatency += latency;
+            }
+
+            saved = number;
+            notifyAll();
+        }
+    }
+}
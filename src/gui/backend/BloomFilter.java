@@ -0,0 +1,106 @@
+package gui.backend;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A BloomFilter is a compact, approximate set of 128-bit puzzle fingerprints,
+ * kept in memory outside of the Java heap. It never misses a fingerprint that
+ * was added, but may report a fingerprint that was never added as present.
+ *
+ * Every fingerprint sets a few bits of a large bit array, chosen from the two
+ * longs of the fingerprint. Bits are set atomically, so any number of threads
+ * can add fingerprints at the same time without locks.
+ */
+public class BloomFilter {
+    // Reads and writes the longs of a direct ByteBuffer atomically.
+    private static final VarHandle LONGS =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    // The number of bits of a segment (1 GB).
+    private static final long SEGMENT_BITS = 1L << 33;
+
+    private final ByteBuffer[] segments;
+    private final long bits;
+    private final int hashes;
+    private final AtomicLong set = new AtomicLong();
+
+    /**
+     * Create a new, empty BloomFilter for about the given number of
+     * fingerprints, with the given number of bits per fingerprint. 10 bits
+     * per fingerprint give about 1% false positives.
+     *
+     * @param expected
+     * @param bitsPerFingerprint
+     */
+    public BloomFilter(long expected, int bitsPerFingerprint) {
+        // Round up to a whole number of longs.
+        this.bits = (Math.max(64, expected * bitsPerFingerprint) + 63) & ~63L;
+        this.hashes = Math.max(1, (int) Math.round(bitsPerFingerprint * Math.log(2)));
+
+        int count = (int) ((bits + SEGMENT_BITS - 1) / SEGMENT_BITS);
+        segments = new ByteBuffer[count];
+        for(int i = 0; i < count; i++) {
+            long length = Math.min(SEGMENT_BITS, bits - i * SEGMENT_BITS);
+            segments[i] = ByteBuffer.allocateDirect((int) (length / 8));
+        }
+    }
+
+    /**
+     * Add a fingerprint to the filter.
+     *
+     * @param high
+     * @param low
+     * @return true if the fingerprint was certainly not in the filter
+     */
+    public boolean add(long high, long low) {
+        boolean added = false;
+        for(int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(high + i * low, bits);
+            ByteBuffer segment = segments[(int) (bit / SEGMENT_BITS)];
+            int index = (int) ((bit % SEGMENT_BITS) >>> 6) * 8;
+            long mask = 1L << (bit & 63);
+
+            long old = (long) LONGS.getAndBitwiseOr(segment, index, mask);
+            if((old & mask) == 0) {
+                set.incrementAndGet();
+                added = true;
+            }
+        }
+
+        return added;
+    }
+
+    /**
+     * Check if a fingerprint may be in the filter.
+     *
+     * @param high
+     * @param low
+     * @return false if the fingerprint is certainly not in the filter
+     */
+    public boolean mightContain(long high, long low) {
+        for(int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(high + i * low, bits);
+            ByteBuffer segment = segments[(int) (bit / SEGMENT_BITS)];
+            int index = (int) ((bit % SEGMENT_BITS) >>> 6) * 8;
+
+            if(((long) LONGS.getVolatile(segment, index) & (1L << (bit & 63))) == 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the chance that a fingerprint never added is reported as present,
+     * from the fraction of bits set so far.
+     *
+     * @return double, from 0 to 1
+     */
+    public double getFalsePositiveRate() {
+        return Math.pow(set.get() / (double) bits, hashes);
+    }
+}
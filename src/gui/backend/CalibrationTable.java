@@ -0,0 +1,177 @@
+package gui.backend;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.TreeMap;
+
+/**
+ * The CalibrationTable stores how long every solving engine took on average
+ * for each bucket of puzzles (see PuzzleFeatures.getBucket()).
+ *
+ * The table is a plain text file with one line per bucket and engine:
+ *
+ *      # bucket engine totalNanos samples
+ *      c2.p1.b0 restart 1534000 12
+ *
+ * A benchmark run regenerates the file with SolverDispatcher.calibrate().
+ * The app then adds the timings of its real solves, and writes the table
+ * back when it exits, see SolverDispatcher.load().
+ */
+public class CalibrationTable {
+    // bucket -> engine -> {total nanoseconds, samples}
+    private final Map<String, Map<String, long[]>> timings = new TreeMap<>();
+    private boolean changed = false;
+
+    /**
+     * Create a new, empty CalibrationTable.
+     */
+    public CalibrationTable() {}
+
+    /**
+     * Create a new CalibrationTable with the timings read from the given
+     * file. If the file does not exist or cannot be read, the table is empty.
+     *
+     * @param file
+     */
+    public CalibrationTable(File file) {
+        if(!file.exists() || file.isDirectory()) return;
+
+        try(Scanner in = new Scanner(file)) {
+            while(in.hasNextLine()) {
+                String line = in.nextLine().trim();
+                if(line.isEmpty() || line.startsWith("#")) continue;
+
+                String[] parts = line.split("\\s+");
+                if(parts.length != 4) {
+                    System.out.println("Skipping calibration line: " + line);
+                    continue;
+                }
+
+                try {
+                    long total = Long.parseLong(parts[2]);
+                    long samples = Long.parseLong(parts[3]);
+                    entry(parts[0], parts[1])[0] += total;
+                    entry(parts[0], parts[1])[1] += samples;
+                } catch(NumberFormatException e) {
+                    System.out.println("Skipping calibration line: " + line);
+                }
+            }
+        } catch(FileNotFoundException e) {
+            System.out.println("Calibration table " + file + " not found.");
+        }
+    }
+
+    /**
+     * Record a solve time for the given bucket and engine.
+     *
+     * @param bucket
+     * @param engine
+     * @param nanos
+     */
+    public synchronized void record(String bucket, String engine, long nanos) {
+        long[] entry = entry(bucket, engine);
+        entry[0] += nanos;
+        entry[1]++;
+        changed = true;
+    }
+
+    /**
+     * Check if timings were recorded since the table was read or saved.
+     *
+     * @return boolean
+     */
+    public synchronized boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * Check if the table has no timings at all.
+     *
+     * @return boolean
+     */
+    public synchronized boolean isEmpty() {
+        return timings.isEmpty();
+    }
+
+    /**
+     * Get the engine with the lowest average time for the given bucket.
+     *
+     * @param bucket
+     * @return the name of the engine, or null if the bucket has no timings
+     */
+    public synchronized String getFastest(String bucket) {
+        Map<String, long[]> engines = timings.get(bucket);
+        if(engines == null) return null;
+
+        String fastest = null;
+        double best = Double.MAX_VALUE;
+        for(Map.Entry<String, long[]> e : engines.entrySet()) {
+            long[] entry = e.getValue();
+            if(entry[1] == 0) continue;
+
+            double average = (double) entry[0] / entry[1];
+            if(average < best) {
+                best = average;
+                fastest = e.getKey();
+            }
+        }
+
+        return fastest;
+    }
+
+    /**
+     * Get the average time in nanoseconds of the given engine for the given
+     * bucket.
+     *
+     * @param bucket
+     * @param engine
+     * @return long, or -1 if there are no timings
+     */
+    public synchronized long getAverage(String bucket, String engine) {
+        Map<String, long[]> engines = timings.get(bucket);
+        if(engines == null || !engines.containsKey(engine)) return -1;
+
+        long[] entry = engines.get(engine);
+        return entry[1] == 0 ? -1 : entry[0] / entry[1];
+    }
+
+    /**
+     * Write the table to the given file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public synchronized void save(File file) throws IOException {
+        try(PrintWriter out = new PrintWriter(file)) {
+            out.println("# bucket engine totalNanos samples");
+            for(Map.Entry<String, Map<String, long[]>> bucket : timings.entrySet()) {
+                for(Map.Entry<String, long[]> engine : bucket.getValue().entrySet()) {
+                    long[] entry = engine.getValue();
+                    out.println(
+                        bucket.getKey() + " " + engine.getKey() + " " +
+                        entry[0] + " " + entry[1]
+                    );
+                }
+            }
+        }
+        changed = false;
+    }
+
+    /**
+     * Get the timing entry for the given bucket and engine, creating it if
+     * it does not exist.
+     *
+     * @param bucket
+     * @param engine
+     * @return long[] {total nanoseconds, samples}
+     */
+    private long[] entry(String bucket, String engine) {
+        return timings
+            .computeIfAbsent(bucket, b -> new TreeMap<>())
+            .computeIfAbsent(engine, e -> new long[2]);
+    }
+}
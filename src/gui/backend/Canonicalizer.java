@@ -0,0 +1,321 @@
+package gui.backend;
+
+import java.util.Arrays;
+
+/**
+ * The Canonicalizer maps a 9x9 puzzle to the canonical form shared by all of
+ * its isomorphic puzzles, ie. all puzzles that are the same up to:
+ *      - transposing the grid;
+ *      - reordering the bands, and the rows within each band;
+ *      - reordering the stacks, and the columns within each stack; and
+ *      - relabeling the digits.
+ *
+ * The canonical form is the smallest grid, read in row-major order, over all
+ * of these transformations, where the digits are relabeled 1, 2, 3, ... in
+ * the order they first appear and empty cells are 0. Two puzzles are
+ * isomorphic if and only if they have the same canonical form.
+ *
+ * For every transposition and column order giving the smallest first row,
+ * the rows are chosen one at a time with a branch and bound search: a row is
+ * only kept if the grid so far is not larger than the smallest grid found so
+ * far, so most orders are cut after a few rows.
+ *
+ * A Canonicalizer keeps its working arrays between calls, so it is not
+ * thread-safe. Use one Canonicalizer per thread.
+ */
+public class Canonicalizer {
+    // The 6 orders of 3 rows or columns.
+    private static final int[][] PERMS = {
+        {0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0}
+    };
+
+    // Every order of the 9 columns that keeps stacks together.
+    private static final int[][] COLUMN_ORDERS = columnOrders();
+
+    // The 3 bit mask of the filled cells of a stack after reordering it with
+    // every order, with the first column as the highest bit.
+    private static final int[][] STACK_KEYS = stackKeys();
+
+    private final int[] grid = new int[81];
+    private final int[] current = new int[81];
+    private final int[] best = new int[81];
+    private final int[][] labels = new int[10][10];
+    private final int[] nextLabel = new int[10];
+
+    // The filled cells and the smallest first row key of every row, for both
+    // transpositions.
+    private final int[] filledMasks = new int[18];
+    private final int[] rowKeys = new int[18];
+
+    // The column order and first row being searched, the row chosen at every
+    // position, and the number of times a smaller grid was found.
+    private int[] columns;
+    private int firstRow;
+    private final int[] rows = new int[9];
+    private long improvements = 0;
+
+    /**
+     * Create every order of the columns that keeps stacks together.
+     *
+     * @return int[1296][9]
+     */
+    private static int[][] columnOrders() {
+        int[][] orders = new int[1296][9];
+        int n = 0;
+        for(int[] stacks : PERMS) {
+            for(int[] a : PERMS) {
+                for(int[] b : PERMS) {
+                    for(int[] c : PERMS) {
+                        int[][] within = {a, b, c};
+                        for(int i = 0; i < 9; i++)
+                            orders[n][i] = stacks[i / 3] * 3 + within[i / 3][i % 3];
+                        n++;
+                    }
+                }
+            }
+        }
+
+        return orders;
+    }
+
+    /**
+     * Reorder every 3 bit mask with every order of 3 columns.
+     *
+     * @return int[6][8]
+     */
+    private static int[][] stackKeys() {
+        int[][] keys = new int[6][8];
+        for(int p = 0; p < 6; p++) {
+            for(int mask = 0; mask < 8; mask++) {
+                for(int i = 0; i < 3; i++)
+                    keys[p][mask] |= ((mask >> PERMS[p][i]) & 1) << (2 - i);
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * Get the canonical form of a puzzle.
+     *
+     * Once relabeled, the first row of a grid only depends on which of its
+     * cells are filled, since the digits of a row are distinct and are
+     * relabeled in increasing order. So the smallest first row is found from
+     * the filled cells alone, and only the transpositions, first rows, and
+     * column orders giving it are searched.
+     *
+     * @param puzzle int[81]
+     * @param out the int[81] array to write the canonical form to
+     * @return out
+     */
+    public int[] canonicalize(int[] puzzle, int[] out) {
+        for(int i = 0; i < 81; i++) best[i] = 10;
+
+        // The smallest key of every row is found by putting the stacks with
+        // the fewest filled cells first, and the filled cells of every stack
+        // last. The smaller the key, the smaller the first row.
+        int minKey = 512;
+        for(int transpose = 0; transpose < 2; transpose++) {
+            for(int row = 0; row < 9; row++) {
+                int filled = 0;
+                for(int col = 0; col < 9; col++) {
+                    int value = transpose == 0 ? puzzle[row * 9 + col] : puzzle[col * 9 + row];
+                    if(value != 0) filled |= 1 << col;
+                }
+                filledMasks[transpose * 9 + row] = filled;
+
+                int[] counts = {
+                    Integer.bitCount(filled & 7),
+                    Integer.bitCount(filled & (7 << 3)),
+                    Integer.bitCount(filled & (7 << 6))
+                };
+                Arrays.sort(counts);
+
+                int key = 0;
+                for(int count : counts) key = (key << 3) | ((1 << count) - 1);
+                rowKeys[transpose * 9 + row] = key;
+                if(key < minKey) minKey = key;
+            }
+        }
+
+        for(int transpose = 0; transpose < 2; transpose++) {
+            for(int i = 0; i < 81; i++)
+                grid[i] = transpose == 0 ? puzzle[i] : puzzle[(i % 9) * 9 + i / 9];
+
+            for(int row = 0; row < 9; row++) {
+                if(rowKeys[transpose * 9 + row] != minKey) continue;
+
+                // Search every column order giving the smallest key, in the
+                // order of COLUMN_ORDERS.
+                int filled = filledMasks[transpose * 9 + row];
+                int order = 0;
+                for(int[] stacks : PERMS) {
+                    int first = (filled >> (3 * stacks[0])) & 7;
+                    int second = (filled >> (3 * stacks[1])) & 7;
+                    int third = (filled >> (3 * stacks[2])) & 7;
+
+                    for(int a = 0; a < 6; a++) {
+                        int keyA = STACK_KEYS[a][first] << 6;
+                        for(int b = 0; b < 6; b++) {
+                            int keyB = keyA | STACK_KEYS[b][second] << 3;
+                            for(int c = 0; c < 6; c++, order++) {
+                                if((keyB | STACK_KEYS[c][third]) != minKey) continue;
+
+                                columns = COLUMN_ORDERS[order];
+                                firstRow = row;
+                                nextLabel[0] = 1;
+                                for(int d = 1; d < 10; d++) labels[0][d] = 0;
+                                search(0, 0, false);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        System.arraycopy(best, 0, out, 0, 81);
+        return out;
+    }
+
+    /**
+     * Get the canonical form of a puzzle.
+     *
+     * @param puzzle int[81]
+     * @return int[81]
+     */
+    public int[] canonicalize(int[] puzzle) {
+        return canonicalize(puzzle, new int[81]);
+    }
+
+    /**
+     * Get the 128-bit fingerprint of a canonical form, as two longs. Neither
+     * long is ever 0.
+     *
+     * @param canonical int[81]
+     * @param out the long[2] array to write the fingerprint to
+     * @return out
+     */
+    public static long[] fingerprint(int[] canonical, long[] out) {
+        long high = 0x9E3779B97F4A7C15L;
+        long low = 0xC2B2AE3D27D4EB4FL;
+
+        // Mix the cells 16 at a time, 4 bits per cell.
+        for(int i = 0; i < 81; i += 16) {
+            long word = 0;
+            for(int j = i; j < Math.min(i + 16, 81); j++)
+                word = (word << 4) | canonical[j];
+
+            high = mix(high ^ word);
+            low = mix(low + word * 0xFF51AFD7ED558CCDL);
+        }
+
+        // 0 marks an empty slot of a FingerprintSet.
+        if(high == 0) high = 1;
+        if(low == 0) low = 1;
+        out[0] = high;
+        out[1] = low;
+        return out;
+    }
+
+    /**
+     * Scramble the bits of a long, see the finalizer of MurmurHash3.
+     *
+     * @param x
+     * @return long
+     */
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        x *= 0xC4CEB9FE1A85EC53L;
+        x ^= x >>> 33;
+        return x;
+    }
+
+    /**
+     * Choose the row at the given position of the grid, and the rows after
+     * it, keeping the grid if it is smaller than the smallest grid so far.
+     *
+     * Rows are taken band by band: the first row of a band can be any row of
+     * an unused band, and the next two rows are the other rows of that band.
+     *
+     * @param depth the position of the row to choose
+     * @param used a bitmask of the rows already chosen
+     * @param smaller true if the rows so far are smaller than the best grid
+     */
+    private void search(int depth, int used, boolean smaller) {
+        if(depth == 9) {
+            if(smaller) {
+                System.arraycopy(current, 0, best, 0, 81);
+                improvements++;
+            }
+            return;
+        }
+
+        int first;
+        int last;
+        if(depth == 0) {
+            first = firstRow;
+            last = firstRow + 1;
+        } else if(depth % 3 == 0) {
+            first = 0;
+            last = 9;
+        } else {
+            // The other rows of the band of the previous row.
+            int band = rows[depth - 1] / 3;
+            first = band * 3;
+            last = first + 3;
+        }
+
+        for(int row = first; row < last; row++) {
+            if((used & (1 << row)) != 0) continue;
+
+            int order = compareRow(depth, row, smaller);
+            if(order > 0) continue;
+
+            rows[depth] = row;
+            long before = improvements;
+            search(depth + 1, used | (1 << row), smaller || order < 0);
+
+            // The rows so far are now the first rows of the best grid.
+            if(improvements != before) smaller = false;
+        }
+    }
+
+    /**
+     * Relabel the given row of the grid into the current grid at the given
+     * position, and compare it to the same row of the best grid.
+     *
+     * @param depth
+     * @param row
+     * @param smaller true if the rows before are already smaller, in which
+     *                case the row is not compared
+     * @return -1, 0, or 1 if the row is smaller, equal, or larger (or 0 if
+     *         the rows before are smaller)
+     */
+    private int compareRow(int depth, int row, boolean smaller) {
+        int[] from = labels[depth];
+        int[] to = labels[depth + 1];
+        System.arraycopy(from, 0, to, 0, 10);
+        int next = nextLabel[depth];
+
+        int order = 0;
+        int base = depth * 9;
+        for(int col = 0; col < 9; col++) {
+            int value = grid[row * 9 + columns[col]];
+            if(value != 0) {
+                if(to[value] == 0) to[value] = next++;
+                value = to[value];
+            }
+            current[base + col] = value;
+
+            if(!smaller && order == 0) {
+                if(value > best[base + col]) return 1;
+                if(value < best[base + col]) order = -1;
+            }
+        }
+
+        nextLabel[depth + 1] = next;
+        return order;
+    }
+}
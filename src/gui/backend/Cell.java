@@ -14,6 +14,9 @@ public class Cell {
     private boolean initValue;
 
     private List possibleValues;
+
+    // The GridModel this cell reports its changes to, if any.
+    private GridModel model;
     
     /**
      * Create a new Cell with the given row and column.
@@ -80,7 +83,9 @@ public class Cell {
         if(initValue) return;
         if(isCorrect) possibleValues.clear();
 
+        boolean changed = this.value != value;
         this.value = value;
+        notifyModel(changed);
     }
 
     /**
@@ -137,6 +142,7 @@ public class Cell {
         }
         
         possibleValues.add(value);
+        notifyModel(false);
     }
 
     /**
@@ -148,6 +154,7 @@ public class Cell {
         if(initValue) return;
 
         this.possibleValues = new List(possibleValues);
+        notifyModel(false);
     }
 
     /**
@@ -161,6 +168,7 @@ public class Cell {
         }
         
         possibleValues.remove(value);
+        notifyModel(false);
     }
     
     /**
@@ -197,6 +205,24 @@ public class Cell {
         return newGrid;
     }
 
+    /**
+     * Set the GridModel this cell reports its changes to.
+     * 
+     * @param model
+     */
+    void setModel(GridModel model) {
+        this.model = model;
+    }
+
+    /**
+     * Report a change of this cell to its GridModel, if it has one.
+     * 
+     * @param valueChanged
+     */
+    private void notifyModel(boolean valueChanged) {
+        if(model != null) model.cellChanged(this, valueChanged);
+    }
+
     /**
      * Given the cell's row and column, set the box number for the cell.
      */
@@ -0,0 +1,258 @@
+package gui.backend;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * The Deduplicator merges puzzle files into one file without duplicates,
+ * where two puzzles are duplicates if they are isomorphic, see the
+ * Canonicalizer.
+ *
+ * Puzzles are read in batches, and every batch is canonicalized and
+ * fingerprinted on a worker thread. The fingerprints are then checked against
+ * the FingerprintSet of the puzzles seen so far batch by batch in input order,
+ * so the first of several duplicates is always the one kept, however the
+ * threads are scheduled. New puzzles are written out as soon as they are
+ * known, so only a few batches are ever held in memory.
+ *
+ * The input files can be in any format read by the PuzzleParser (including
+ * .gz files), or .sdkb containers. The output is a .sdkb container if its
+ * name ends with .sdkb, and a text file with one puzzle per line otherwise.
+ */
+public class Deduplicator {
+    // The number of puzzles of a batch.
+    private static final int BATCH_SIZE = 4096;
+
+    // The number of batches in flight per thread.
+    private static final int BATCHES_PER_THREAD = 2;
+
+    private final FingerprintSet seen;
+    private final int threads;
+    private long inputs = 0;
+    private long unique = 0;
+
+    /**
+     * Create a new Deduplicator.
+     *
+     * @param seen the fingerprints of the puzzles seen so far
+     * @param threads the number of threads canonicalizing puzzles
+     */
+    public Deduplicator(FingerprintSet seen, int threads) {
+        this.seen = seen;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Write every puzzle of the given files that was not seen before to the
+     * given file.
+     *
+     * @param files
+     * @param out
+     * @throws IOException
+     */
+    public void run(Iterable<File> files, File out) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ThreadLocal<Canonicalizer> canonicalizers = ThreadLocal.withInitial(Canonicalizer::new);
+
+        try(Output output = open(out)) {
+            ArrayDeque<Batch> pending = new ArrayDeque<>();
+            int window = threads * BATCHES_PER_THREAD;
+            int[][][] batch = {new int[BATCH_SIZE][]};
+            int[] size = {0};
+
+            // Submit a batch, writing out the oldest batch if too many are in
+            // flight.
+            Runnable submit = () -> {
+                int[][] puzzles = batch[0];
+                int count = size[0];
+                pending.add(new Batch(
+                    puzzles, count,
+                    pool.submit(() -> fingerprint(puzzles, count, canonicalizers.get()))
+                ));
+                batch[0] = new int[BATCH_SIZE][];
+                size[0] = 0;
+
+                try {
+                    while(pending.size() >= window) write(pending.poll(), output);
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+
+            for(File f : files) {
+                Consumer<int[]> puzzles = values -> {
+                    inputs++;
+                    batch[0][size[0]++] = values;
+                    if(size[0] == BATCH_SIZE) submit.run();
+                };
+
+                if(PuzzleContainer.isContainer(f)) {
+                    try(PuzzleContainer container = new PuzzleContainer(f)) {
+                        container.forEach(puzzles);
+                    }
+                } else {
+                    PuzzleParser.parseFile(f, puzzles);
+                }
+            }
+
+            if(size[0] > 0) submit.run();
+            while(!pending.isEmpty()) write(pending.poll(), output);
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the number of puzzles read by run().
+     *
+     * @return long
+     */
+    public long getInputs() {
+        return inputs;
+    }
+
+    /**
+     * Get the number of new puzzles written by run().
+     *
+     * @return long
+     */
+    public long getUnique() {
+        return unique;
+    }
+
+    /**
+     * Canonicalize a batch of puzzles and fingerprint them.
+     *
+     * @param puzzles
+     * @param count the number of puzzles of the batch
+     * @param canonicalizer
+     * @return the two longs of the fingerprint of every puzzle, one after the other
+     */
+    private static long[] fingerprint(int[][] puzzles, int count, Canonicalizer canonicalizer) {
+        int[] canonical = new int[81];
+        long[] fingerprint = new long[2];
+
+        long[] fingerprints = new long[count * 2];
+        for(int i = 0; i < count; i++) {
+            canonicalizer.canonicalize(puzzles[i], canonical);
+            Canonicalizer.fingerprint(canonical, fingerprint);
+            fingerprints[i * 2] = fingerprint[0];
+            fingerprints[i * 2 + 1] = fingerprint[1];
+        }
+
+        return fingerprints;
+    }
+
+    /**
+     * Wait for a batch to be fingerprinted, and write its puzzles not seen
+     * before. Batches are written one at a time in input order, so the
+     * earliest of several duplicates is the one added to the set first.
+     *
+     * @param batch
+     * @param output
+     * @throws IOException
+     */
+    private void write(Batch batch, Output output) throws IOException {
+        try {
+            long[] fingerprints = batch.fingerprints.get();
+            for(int i = 0; i < batch.count; i++) {
+                if(!seen.add(fingerprints[i * 2], fingerprints[i * 2 + 1])) continue;
+
+                output.write(batch.puzzles[i]);
+                unique++;
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deduplicating");
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Open the output file, as a .sdkb container or a text file.
+     *
+     * @param f
+     * @return Output
+     * @throws IOException
+     */
+    private static Output open(File f) throws IOException {
+        if(PuzzleContainer.isContainer(f)) {
+            PuzzleContainer.Writer writer = new PuzzleContainer.Writer(f, 0);
+            return new Output() {
+                public void write(int[] values) throws IOException {
+                    writer.add(values);
+                }
+
+                public void close() throws IOException {
+                    writer.close();
+                }
+            };
+        }
+
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(f), 1 << 16);
+        byte[] line = new byte[82];
+        line[81] = '\n';
+        return new Output() {
+            public void write(int[] values) throws IOException {
+                for(int i = 0; i < 81; i++)
+                    line[i] = (byte) (values[i] == 0 ? '.' : '0' + values[i]);
+                stream.write(line);
+            }
+
+            public void close() throws IOException {
+                stream.close();
+            }
+        };
+    }
+
+    /**
+     * A batch of puzzles, and their fingerprints once computed.
+     */
+    private static final class Batch {
+        final int[][] puzzles;
+        final int count;
+        final Future<long[]> fingerprints;
+
+        /**
+         * Create a new Batch.
+         *
+         * @param puzzles
+         * @param count the number of puzzles of the batch
+         * @param fingerprints
+         */
+        Batch(int[][] puzzles, int count, Future<long[]> fingerprints) {
+            this.puzzles = puzzles;
+            this.count = count;
+            this.fingerprints = fingerprints;
+        }
+    }
+
+    /**
+     * Writes the new puzzles.
+     */
+    private interface Output extends Closeable {
+        /**
+         * Write a puzzle.
+         *
+         * @param values int[81]
+         * @throws IOException
+         */
+        void write(int[] values) throws IOException;
+    }
+}
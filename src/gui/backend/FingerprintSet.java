@@ -0,0 +1,170 @@
+package gui.backend;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * A FingerprintSet is a set of 128-bit puzzle fingerprints, see the
+ * Canonicalizer, kept in memory outside of the Java heap so it can hold
+ * hundreds of millions of fingerprints without slowing the garbage collector.
+ *
+ * The set is an open addressing hash table with linear probing, where every
+ * slot holds the two longs of a fingerprint. Neither long of a fingerprint is
+ * ever 0, so 0 marks an empty slot. Slots are claimed with a compare-and-set
+ * on their first long, so any number of threads can add fingerprints at the
+ * same time without locks.
+ *
+ * The table has a fixed capacity, so its memory is bounded. Once it is 90%
+ * full, new fingerprints are only added to the optional BloomFilter, which
+ * keeps memory bounded for any number of puzzles at the cost of treating a
+ * small fraction of new puzzles as already seen. getOverflowed() and
+ * getEstimatedDropped() tell how many fingerprints went to the BloomFilter
+ * and about how many new ones it dropped. Without a BloomFilter, adding to a
+ * full set throws an IllegalStateException.
+ */
+public class FingerprintSet {
+    // Reads and writes the longs of a direct ByteBuffer atomically.
+    private static final VarHandle LONGS =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    // The number of 16 byte slots of a segment (1 GB).
+    private static final int SEGMENT_SLOTS = 1 << 26;
+
+    // The largest fraction of slots used before the table is full.
+    private static final double MAX_LOAD = 0.9;
+
+    private final ByteBuffer[] segments;
+    private final long capacity;
+    private final long maxSize;
+    private final BloomFilter overflow;
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+    private final DoubleAdder dropped = new DoubleAdder();
+
+    /**
+     * Create a new, empty FingerprintSet for about the given number of
+     * fingerprints.
+     *
+     * @param expected
+     * @param overflow the BloomFilter to use once the table is full, or null
+     */
+    public FingerprintSet(long expected, BloomFilter overflow) {
+        // A power of 2 with a load of at most 70% for the expected count.
+        long slots = Long.highestOneBit(Math.max(16, (long) (expected / 0.7)) - 1) << 1;
+        this.capacity = slots;
+        this.maxSize = (long) (slots * MAX_LOAD);
+        this.overflow = overflow;
+
+        int count = (int) ((slots + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS);
+        segments = new ByteBuffer[count];
+        for(int i = 0; i < count; i++) {
+            long length = Math.min(SEGMENT_SLOTS, slots - (long) i * SEGMENT_SLOTS);
+            segments[i] = ByteBuffer.allocateDirect((int) (length * 16));
+        }
+    }
+
+    /**
+     * Add a fingerprint to the set.
+     *
+     * @param high the first long of the fingerprint, not 0
+     * @param low the second long of the fingerprint, not 0
+     * @return true if the fingerprint was not in the set
+     */
+    public boolean add(long high, long low) {
+        long mask = capacity - 1;
+        long slot = (high ^ (low * 0x9E3779B97F4A7C15L)) & mask;
+
+        for(long probes = 0; probes < capacity; probes++, slot = (slot + 1) & mask) {
+            ByteBuffer segment = segments[(int) (slot / SEGMENT_SLOTS)];
+            int index = (int) (slot % SEGMENT_SLOTS) * 16;
+
+            long first = (long) LONGS.getVolatile(segment, index);
+            if(first == 0) {
+                if(size.get() >= maxSize) return addOverflow(high, low);
+
+                if(!LONGS.compareAndSet(segment, index, 0L, high)) {
+                    first = (long) LONGS.getVolatile(segment, index);
+                } else {
+                    LONGS.setVolatile(segment, index + 8, low);
+                    size.incrementAndGet();
+                    return true;
+                }
+            }
+
+            if(first == high) {
+                // Wait for the thread that claimed the slot to fill it.
+                long second;
+                while((second = (long) LONGS.getVolatile(segment, index + 8)) == 0)
+                    Thread.onSpinWait();
+                if(second == low) return false;
+            }
+        }
+
+        return addOverflow(high, low);
+    }
+
+    /**
+     * Add a fingerprint to the BloomFilter once the table is full.
+     *
+     * @param high
+     * @param low
+     * @return true if the fingerprint was not in the BloomFilter
+     */
+    private boolean addOverflow(long high, long low) {
+        if(overflow == null)
+            throw new IllegalStateException("The fingerprint set is full");
+
+        double falsePositives = overflow.getFalsePositiveRate();
+        boolean added = overflow.add(high, low);
+        if(added) {
+            overflowed.incrementAndGet();
+
+            // A new fingerprint is dropped as often as a false positive, so
+            // for every one added about p / (1 - p) others were dropped.
+            if(falsePositives < 1) dropped.add(falsePositives / (1 - falsePositives));
+        }
+        return added;
+    }
+
+    /**
+     * Get the number of fingerprints in the table.
+     *
+     * @return long
+     */
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * Get the number of fingerprints added to the BloomFilter once the table
+     * was full.
+     *
+     * @return long
+     */
+    public long getOverflowed() {
+        return overflowed.get();
+    }
+
+    /**
+     * Get an estimate of the number of new fingerprints the BloomFilter
+     * reported as present, and so were treated as already seen.
+     *
+     * @return long
+     */
+    public long getEstimatedDropped() {
+        return Math.round(dropped.sum());
+    }
+
+    /**
+     * Get the number of slots of the table.
+     *
+     * @return long
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+}
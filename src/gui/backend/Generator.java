@@ -0,0 +1,144 @@
+package gui.backend;
+
+import java.util.Random;
+
+/**
+ * The Generator creates new, random 9x9 puzzles with a unique solution.
+ *
+ * A random solved grid is created with the RestartSolver, and clues are then
+ * dug out of it in a random order, keeping every removal that leaves the
+ * puzzle with a unique solution. Since the puzzle was unique before the
+ * removal, only the other candidates of the emptied cell need to be checked
+ * for solutions.
+ */
+public class Generator {
+    private final Random random;
+
+    /**
+     * Create a new Generator with the given seed.
+     *
+     * @param seed
+     */
+    public Generator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generate a new puzzle with a unique solution and, if possible, no more
+     * than the given number of clues.
+     *
+     * @param minClues the number of clues to stop digging at
+     * @return Cell[][]
+     */
+    public Cell[][] generate(int minClues) {
+        Cell[][] blank = new Cell[9][9];
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++)
+                blank[row][col] = new Cell(row, col, 0);
+        }
+
+        Cell[][] solution = new RestartSolver(blank, random.nextLong()).solve();
+        return dig(solution, minClues);
+    }
+
+    /**
+     * Dig clues out of the given solved grid in a random order, keeping
+     * every removal that leaves a unique solution, until no more clues can be
+     * removed or only the given number of clues is left.
+     *
+     * @param solution
+     * @param minClues
+     * @return Cell[][]
+     */
+    public Cell[][] dig(Cell[][] solution, int minClues) {
+        SearchState state = new SearchState(solution);
+
+        // Visit the cells in a random order.
+        int[] order = new int[81];
+        for(int i = 0; i < 81; i++) order[i] = i;
+        for(int i = 80; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+
+        for(int index : order) {
+            if(81 - state.empty <= minClues) break;
+
+            int value = state.values[index];
+            state.remove(index);
+            if(!hasOnlySolutionValue(state, index, value))
+                state.place(index, value);
+        }
+
+        return state.toGrid();
+    }
+
+    /**
+     * Check that the puzzle has a unique solution after a clue was removed.
+     *
+     * Before the removal the puzzle had a unique solution with the removed
+     * value, so it is still unique if every other candidate of the emptied
+     * cell leads to no solution at all.
+     *
+     * @param state
+     * @param index the emptied cell
+     * @param value the value removed from the cell
+     * @return boolean
+     */
+    private boolean hasOnlySolutionValue(SearchState state, int index, int value) {
+        int candidates = state.candidates(index) & ~(1 << value);
+        while(candidates != 0) {
+            int other = Integer.numberOfTrailingZeros(candidates);
+            candidates &= candidates - 1;
+
+            state.place(index, other);
+            int solutions = count(state);
+            state.remove(index);
+
+            if(solutions > 0) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Count the solutions of the given state, up to two, with a back-tracking
+     * search that propagates singles before every guess.
+     *
+     * @param state the state to count, which is left unchanged
+     * @return 0, 1, or 2
+     */
+    private int count(SearchState state) {
+        SearchState node = state.copy();
+        if(!node.propagate()) return 0;
+        if(node.empty == 0) return 1;
+
+        // Branch on the cell with the fewest candidates.
+        int index = -1;
+        int bestCount = 10;
+        for(int i = 0; i < 81 && bestCount > 2; i++) {
+            if(node.values[i] != 0) continue;
+
+            int count = Integer.bitCount(node.candidates(i));
+            if(count < bestCount) {
+                index = i;
+                bestCount = count;
+            }
+        }
+
+        int total = 0;
+        int candidates = node.candidates(index);
+        while(candidates != 0 && total < 2) {
+            int value = Integer.numberOfTrailingZeros(candidates);
+            candidates &= candidates - 1;
+
+            node.place(index, value);
+            total += count(node);
+            node.remove(index);
+        }
+
+        return Math.min(total, 2);
+    }
+}
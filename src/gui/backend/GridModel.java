@@ -0,0 +1,326 @@
+package gui.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The GridModel wraps the 9x9 Cell[][] grid of the loaded puzzle, and caches
+ * the data derived from it so it is only computed once per change.
+ *
+ * Every Cell of the grid reports changes to its model, and the model keeps a
+ * version number that increases whenever a value in the grid changes. The
+ * derived data (candidates, conflicts, and solvability) is stored with the
+ * version it was computed at, and is only recomputed on the next read after
+ * the version changes. Repeated GUI refreshes and hint requests therefore do
+ * no redundant work.
+ *
+ * The solution of the puzzle only depends on the initial values, which never
+ * change, so it is computed once.
+ *
+ * Listeners added with addListener() are told about every change of a Cell,
+ * for eg. to save each move as it is made.
+ *
+ * A GridModel is not thread-safe, and should only be used from the Swing
+ * event dispatch thread. Background threads should work on an immutable
+ * GridSnapshot taken with snapshot() instead.
+ */
+public class GridModel {
+    private final Cell[][] cells;
+    private long version = 0;
+
+    // Cached data and the version it was computed at, -1 if never.
+    private int[] candidates;
+    private long candidatesVersion = -1;
+    private boolean[][] conflicts;
+    private long conflictsVersion = -1;
+    private boolean solvable;
+    private long solvableVersion = -1;
+    private long notesFilledVersion = -1;
+
+    // The packed rows of the last snapshot, and which rows changed since.
+    private final int[][] rows = new int[9][];
+    private final boolean[] dirtyRows = new boolean[9];
+    private GridSnapshot snapshot;
+
+    // The solution of the initial values.
+    private Cell[][] solution;
+    private boolean solutionComputed = false;
+
+    private final List<Listener> listeners = new ArrayList<>();
+
+    /**
+     * Create a new GridModel for the given grid. Every Cell of the grid
+     * reports its changes to this model from now on.
+     *
+     * @param cells
+     */
+    public GridModel(Cell[][] cells) {
+        this.cells = cells;
+        for(Cell[] row : cells) {
+            for(Cell cell : row) cell.setModel(this);
+        }
+
+        for(int row = 0; row < 9; row++) dirtyRows[row] = true;
+    }
+
+    /**
+     * Get the underlying grid of Cells.
+     *
+     * @return Cell[][]
+     */
+    public Cell[][] getCells() {
+        return cells;
+    }
+
+    /**
+     * Get the version of the grid, which increases whenever a value of the
+     * grid changes.
+     *
+     * @return long
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Called by a Cell of the grid whenever it changes.
+     *
+     * @param cell
+     * @param valueChanged true if the value changed, false if only the notes
+     *                     changed
+     */
+    void cellChanged(Cell cell, boolean valueChanged) {
+        if(valueChanged) version++;
+
+        dirtyRows[cell.getRow()] = true;
+        snapshot = null;
+
+        for(Listener listener : listeners) listener.cellChanged(cell, valueChanged);
+    }
+
+    /**
+     * Add a listener to be told about every change of a Cell of the grid.
+     *
+     * @param listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener added with addListener().
+     *
+     * @param listener
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Take an immutable snapshot of the grid's values and notes, to be handed
+     * to background threads.
+     *
+     * Only the rows that changed since the last snapshot are copied, the
+     * other rows are shared with it. If nothing changed, the last snapshot
+     * is returned again.
+     *
+     * @return GridSnapshot
+     */
+    public GridSnapshot snapshot() {
+        if(snapshot != null) return snapshot;
+
+        int[][] packed = new int[9][];
+        for(int row = 0; row < 9; row++) {
+            if(dirtyRows[row]) {
+                int[] values = new int[9];
+                for(int col = 0; col < 9; col++)
+                    values[col] = GridSnapshot.pack(cells[row][col]);
+
+                rows[row] = values;
+                dirtyRows[row] = false;
+            }
+            packed[row] = rows[row];
+        }
+
+        snapshot = new GridSnapshot(packed, version);
+        return snapshot;
+    }
+
+    /**
+     * Get the bitmask of candidates for every cell, indexed by row * 9 + col,
+     * where bit n is set if the digit n can be placed in the cell without
+     * breaking a Sudoku rule. Cells with a value have no candidates.
+     *
+     * The returned array is shared and must not be modified.
+     *
+     * @return int[]
+     */
+    public int[] getCandidateMasks() {
+        if(candidatesVersion == version) return candidates;
+
+        SearchState state = new SearchState(cells);
+        candidates = new int[81];
+        for(int i = 0; i < 81; i++) {
+            if(state.values[i] == 0) candidates[i] = state.candidates(i);
+        }
+
+        candidatesVersion = version;
+        return candidates;
+    }
+
+    /**
+     * Get the candidates of a single cell as an array of digits in
+     * ascending order.
+     *
+     * @param row
+     * @param col
+     * @return int[]
+     */
+    public int[] getCandidates(int row, int col) {
+        int mask = getCandidateMasks()[row * 9 + col];
+        int[] values = new int[Integer.bitCount(mask)];
+        for(int i = 0; mask != 0; i++) {
+            values[i] = Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+        }
+
+        return values;
+    }
+
+    /**
+     * Get which cells have a value that is also in another cell of the same
+     * row, column, or box.
+     *
+     * The returned array is shared and must not be modified.
+     *
+     * @return boolean[][]
+     */
+    public boolean[][] getConflicts() {
+        if(conflictsVersion == version) return conflicts;
+
+        conflicts = new boolean[9][9];
+        for(int[] unit : SearchState.UNITS) {
+            for(int a = 0; a < 9; a++) {
+                Cell first = cells[unit[a] / 9][unit[a] % 9];
+                if(first.getValue() == 0) continue;
+
+                for(int b = a + 1; b < 9; b++) {
+                    Cell second = cells[unit[b] / 9][unit[b] % 9];
+                    if(first.getValue() == second.getValue()) {
+                        conflicts[first.getRow()][first.getCol()] = true;
+                        conflicts[second.getRow()][second.getCol()] = true;
+                    }
+                }
+            }
+        }
+
+        conflictsVersion = version;
+        return conflicts;
+    }
+
+    /**
+     * Check if the values currently in the grid can still be completed to a
+     * solution, solving them with the calibrated engine, see
+     * SolverDispatcher.dispatch().
+     *
+     * @return boolean
+     */
+    public boolean isSolvable() {
+        if(solvableVersion == version) return solvable;
+
+        solvable = SolverDispatcher.dispatch(cells) != null;
+        solvableVersion = version;
+        return solvable;
+    }
+
+    /**
+     * Use the given candidates, computed from a snapshot of this grid at the
+     * given version, for eg. on a background thread. They are ignored if the
+     * grid changed since.
+     *
+     * @param masks the candidates as returned by getCandidateMasks()
+     * @param version the version of the snapshot
+     */
+    public void setCandidateMasks(int[] masks, long version) {
+        if(version != this.version) return;
+
+        candidates = masks;
+        candidatesVersion = version;
+    }
+
+    /**
+     * Check if the solution was already computed, so getSolution() returns
+     * without solving.
+     *
+     * @return boolean
+     */
+    public boolean isSolutionComputed() {
+        return solutionComputed;
+    }
+
+    /**
+     * Use the given solution of the initial values, for eg. computed from a
+     * snapshot on a background thread.
+     *
+     * @param solution the solution, or null if the puzzle has no solution
+     */
+    public void setSolution(Cell[][] solution) {
+        this.solution = solution;
+        solutionComputed = true;
+    }
+
+    /**
+     * Get the solution of the puzzle, ie. of the initial values only,
+     * solved with the calibrated engine, see SolverDispatcher.dispatch().
+     *
+     * @return Cell[][], or null if the puzzle has no solution
+     */
+    public Cell[][] getSolution() {
+        if(solutionComputed) return solution;
+
+        Cell[][] givens = new Cell[9][9];
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++) {
+                Cell cell = cells[row][col];
+                givens[row][col] = new Cell(
+                    row, col, cell.isInitValue() ? cell.getValue() : 0
+                );
+            }
+        }
+
+        solution = SolverDispatcher.dispatch(givens);
+        solutionComputed = true;
+        return solution;
+    }
+
+    /**
+     * Fill the notes of every empty cell with its candidates. Nothing is
+     * done if the notes were already filled at the current version.
+     */
+    public void fillPossibleValues() {
+        if(notesFilledVersion == version) return;
+
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++) {
+                if(cells[row][col].getValue() == 0)
+                    cells[row][col].setPossibleValues(getCandidates(row, col));
+            }
+        }
+
+        notesFilledVersion = version;
+    }
+
+    /**
+     * Told about every change of a Cell of a GridModel.
+     */
+    public interface Listener {
+        /**
+         * Called after a Cell of the grid changed.
+         *
+         * @param cell
+         * @param valueChanged true if the value changed, false if only the
+         *                     notes changed
+         */
+        void cellChanged(Cell cell, boolean valueChanged);
+    }
+}
@@ -0,0 +1,172 @@
+package gui.backend;
+
+/**
+ * A GridSnapshot is an immutable copy of a 9x9 grid's values, notes, and
+ * initial values at one version of a GridModel.
+ *
+ * Snapshots are taken on the Swing event dispatch thread with
+ * GridModel.snapshot(), and can then be handed to any number of background
+ * threads (solvers, hints, auto-save) while the user keeps editing the grid.
+ * All fields are final and the arrays are never modified once a snapshot is
+ * created, so a snapshot can be read from any thread without locks and
+ * without ever seeing a half-applied change.
+ *
+ * Taking a snapshot is cheap: rows that did not change since the last
+ * snapshot are shared between the two snapshots instead of being copied.
+ *
+ * Every cell is packed into a single int:
+ *      - bits 0-3 hold the value (0 if empty);
+ *      - bits 5-13 hold the notes, where bit 4 + n is set for the note n; and
+ *      - bit 15 is set if the value is an initial value.
+ */
+public final class GridSnapshot {
+    static final int VALUE_MASK = 0xF;
+    static final int NOTES_SHIFT = 4;
+    static final int NOTES_MASK = 0x3FE << NOTES_SHIFT;
+    static final int GIVEN = 1 << 15;
+
+    private final int[][] rows;
+    private final long version;
+
+    /**
+     * Create a new GridSnapshot from the given packed rows. The rows must not
+     * be modified after this.
+     *
+     * @param rows
+     * @param version
+     */
+    GridSnapshot(int[][] rows, long version) {
+        this.rows = rows;
+        this.version = version;
+    }
+
+    /**
+     * Pack a single Cell into an int.
+     *
+     * @param cell
+     * @return int
+     */
+    static int pack(Cell cell) {
+        int packed = cell.getValue() & VALUE_MASK;
+        for(int note : cell.getPossibleValues())
+            packed |= 1 << (note + NOTES_SHIFT);
+        if(cell.isInitValue()) packed |= GIVEN;
+
+        return packed;
+    }
+
+    /**
+     * Get the version of the GridModel this snapshot was taken at.
+     *
+     * @return long
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the value of a cell, 0 if the cell is empty.
+     *
+     * @param row
+     * @param col
+     * @return int
+     */
+    public int getValue(int row, int col) {
+        return rows[row][col] & VALUE_MASK;
+    }
+
+    /**
+     * Get the notes of a cell as a bitmask, where bit n is set for the note n.
+     *
+     * @param row
+     * @param col
+     * @return int
+     */
+    public int getNotes(int row, int col) {
+        return (rows[row][col] & NOTES_MASK) >> NOTES_SHIFT;
+    }
+
+    /**
+     * Get a cell packed into an int, see the layout above.
+     *
+     * @param row
+     * @param col
+     * @return int
+     */
+    int getPacked(int row, int col) {
+        return rows[row][col];
+    }
+
+    /**
+     * Check if the value of a cell is an initial value.
+     *
+     * @param row
+     * @param col
+     * @return boolean
+     */
+    public boolean isInitValue(int row, int col) {
+        return (rows[row][col] & GIVEN) != 0;
+    }
+
+    /**
+     * Check if the given row is shared with another snapshot, ie. the row
+     * did not change between the two snapshots.
+     *
+     * @param other
+     * @param row
+     * @return boolean
+     */
+    public boolean sharesRow(GridSnapshot other, int row) {
+        return rows[row] == other.rows[row];
+    }
+
+    /**
+     * Create a new, private 9x9 grid of Cells with the values and notes of
+     * this snapshot, for code that works on Cell[][] grids such as the
+     * solvers. Initial values stay initial values.
+     *
+     * @return Cell[][]
+     */
+    public Cell[][] toCells() {
+        Cell[][] grid = new Cell[9][9];
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++) {
+                int value = getValue(row, col);
+                if(isInitValue(row, col)) {
+                    grid[row][col] = new Cell(row, col, value);
+                    continue;
+                }
+
+                Cell cell = new Cell(row, col);
+                cell.setValue(value, false);
+
+                int notes = getNotes(row, col);
+                for(int note = 1; note <= 9; note++) {
+                    if((notes & (1 << note)) != 0) cell.addPossibleValue(note);
+                }
+
+                grid[row][col] = cell;
+            }
+        }
+
+        return grid;
+    }
+
+    /**
+     * Create a new 9x9 grid of Cells with only the initial values of this
+     * snapshot, ie. the original puzzle.
+     *
+     * @return Cell[][]
+     */
+    public Cell[][] toGivens() {
+        Cell[][] grid = new Cell[9][9];
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++) {
+                int value = isInitValue(row, col) ? getValue(row, col) : 0;
+                grid[row][col] = new Cell(row, col, value);
+            }
+        }
+
+        return grid;
+    }
+}
@@ -0,0 +1,510 @@
+package gui.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The GzipPuzzleReader streams the puzzles of a gzip-compressed text file
+ * with one puzzle per line, without decompressing it to disk first.
+ *
+ * A gzip file may be made of several members, each compressed on its own,
+ * for eg. when compressed files are concatenated or written by parallel
+ * compressors. Members do not depend on each other, so they are decompressed
+ * on separate threads, and their lines are then parsed and passed on in file
+ * order. A file of a single member is streamed on one thread.
+ *
+ * The start of a member cannot be known without decompressing the member
+ * before it, so the calling thread streams the member where the previous one
+ * ended, while the workers decompress every later occurrence of the gzip
+ * magic bytes as a possible member. A possible member is only used if it
+ * starts exactly where the previous member ended and its CRC and size match,
+ * so magic bytes that happen to be in compressed data are skipped. A file
+ * without further magic bytes, such as a file of a single member, is only
+ * streamed by the calling thread.
+ *
+ * The possible members held in memory share a budget of MAX_BUFFERED bytes,
+ * whatever the number of threads. A possible member that does not fit is
+ * given up, and streamed by the calling thread once it is reached.
+ *
+ * Lines may span two members, and are parsed once both are decompressed.
+ */
+public class GzipPuzzleReader {
+    // The size of the read and inflate buffers.
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // The most decompressed bytes held by the possible members, in total.
+    private static final long MAX_BUFFERED = 1 << 26;
+
+    // The number of members decompressed ahead of the parser per thread.
+    private static final int MEMBERS_PER_THREAD = 2;
+
+    private final File f;
+    private final int threads;
+
+    /**
+     * Create a new GzipPuzzleReader for the given file, using one thread per
+     * processor.
+     *
+     * @param f
+     */
+    public GzipPuzzleReader(File f) {
+        this(f, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a new GzipPuzzleReader for the given file.
+     *
+     * @param f
+     * @param threads the number of threads decompressing members
+     */
+    public GzipPuzzleReader(File f, int threads) {
+        this.f = f;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Check if the given file is gzip-compressed, from its name.
+     *
+     * @param f
+     * @return boolean
+     */
+    public static boolean isGzip(File f) {
+        return f.getName().toLowerCase().endsWith(".gz");
+    }
+
+    /**
+     * Parse every puzzle of the file, in order, and pass each one to the
+     * given consumer as a new int[81] array. The consumer is only called from
+     * the calling thread.
+     *
+     * @param out
+     * @return the number of puzzles parsed
+     * @throws IOException if the file cannot be read, is not valid gzip, or
+     *                     holds a malformed puzzle
+     */
+    public long read(Consumer<int[]> out) throws IOException {
+        long[] count = new long[1];
+        LineFeeder feeder = new LineFeeder(values -> {
+            count[0]++;
+            out.accept(values);
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            MemberScanner scanner = new MemberScanner(channel);
+            AtomicLong buffered = new AtomicLong();
+            ArrayDeque<Member> pending = new ArrayDeque<>();
+            int window = threads * MEMBERS_PER_THREAD;
+            long next = 0;
+
+            while(next < size) {
+                // Keep the workers busy with the possible members after the
+                // one the calling thread is at.
+                while(pending.size() < window) {
+                    long start = scanner.next();
+                    if(start < 0) break;
+                    if(start <= next) continue;
+                    Member member = new Member(start, buffered);
+                    member.decoded = pool.submit(() -> decodeMember(channel, member));
+                    pending.add(member);
+                }
+
+                // Skip the possible members that were inside the previous one.
+                while(!pending.isEmpty() && pending.peek().start < next) {
+                    Member skipped = pending.poll();
+                    skipped.abandoned = true;
+                    skipped.decoded.get();
+                    skipped.release();
+                }
+
+                Member member = null;
+                if(!pending.isEmpty() && pending.peek().start == next) {
+                    member = pending.poll();
+                    member.decoded.get();
+                }
+
+                if(member != null && member.error != null) throw member.error;
+
+                // Stream the member on this thread if no worker holds it.
+                if(member == null || member.tooLarge) {
+                    next = decode(channel, next, feeder);
+                    scanner.skipTo(next);
+                } else {
+                    feeder.accept(member.data, 0, member.length);
+                    next = member.end;
+                    member.release();
+                }
+            }
+
+            feeder.finish();
+            return count[0];
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + f.getName());
+        } catch(ExecutionException e) {
+            throw new IOException("Unable to read " + f.getName(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Decompress the given possible member into memory.
+     *
+     * @param channel
+     * @param member
+     */
+    private static void decodeMember(FileChannel channel, Member member) {
+        try {
+            member.end = decode(channel, member.start, member);
+        } catch(MemberTooLargeException e) {
+            member.tooLarge = true;
+            member.release();
+        } catch(IOException e) {
+            member.error = e;
+            member.release();
+        }
+    }
+
+    /**
+     * Decompress the member at the given offset, passing its bytes to the
+     * given sink, and check its CRC and size.
+     *
+     * @param channel
+     * @param start
+     * @param sink
+     * @return the offset of the end of the member
+     * @throws IOException if there is no valid member at the offset
+     */
+    private static long decode(FileChannel channel, long start, Sink sink) throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        int read = readAt(channel, in, start);
+        long inputEnd = start + read;
+        byte[] input = in.array();
+
+        int offset = headerSize(input, read, start);
+
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        byte[] output = new byte[BUFFER_SIZE];
+        long total = 0;
+
+        try {
+            inflater.setInput(input, offset, read - offset);
+            while(!inflater.finished()) {
+                int length = inflater.inflate(output);
+                if(length > 0) {
+                    crc.update(output, 0, length);
+                    sink.accept(output, 0, length);
+                    total += length;
+                } else if(inflater.needsInput()) {
+                    in.clear();
+                    read = readAt(channel, in, inputEnd);
+                    if(read <= 0) throw new IOException("Truncated gzip member at " + start);
+
+                    inputEnd += read;
+                    inflater.setInput(input, 0, read);
+                } else if(inflater.needsDictionary()) {
+                    throw new IOException("Invalid gzip member at " + start);
+                }
+            }
+
+            // The trailer holds the CRC and size of the member, little-endian.
+            long end = inputEnd - inflater.getRemaining();
+            ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            if(readAt(channel, trailer, end) < 8
+                    || trailer.getInt(0) != (int) crc.getValue()
+                    || trailer.getInt(4) != (int) total)
+                throw new IOException("Corrupt gzip member at " + start);
+
+            return end + 8;
+        } catch(DataFormatException e) {
+            throw new IOException("Invalid gzip member at " + start, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Get the size of the gzip header at the start of the given bytes.
+     *
+     * @param b
+     * @param length the number of valid bytes
+     * @param start the offset of the header in the file
+     * @return int
+     * @throws IOException if the header is invalid or too long
+     */
+    private static int headerSize(byte[] b, int length, long start) throws IOException {
+        if(length < 10 || (b[0] & 0xFF) != 0x1F || (b[1] & 0xFF) != 0x8B || b[2] != 8)
+            throw new IOException("Invalid gzip header at " + start);
+
+        int flags = b[3] & 0xFF;
+        int offset = 10;
+        try {
+            // Skip the extra field, file name, comment, and header CRC.
+            if((flags & 4) != 0)
+                offset += 2 + ((b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8);
+            if((flags & 8) != 0)
+                while(b[offset++] != 0);
+            if((flags & 16) != 0)
+                while(b[offset++] != 0);
+            if((flags & 2) != 0)
+                offset += 2;
+        } catch(ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Gzip header too long at " + start);
+        }
+
+        if(offset > length) throw new IOException("Gzip header too long at " + start);
+        return offset;
+    }
+
+    /**
+     * Read from the given offset until the buffer is full or the file ends.
+     *
+     * @param channel
+     * @param buffer
+     * @param position
+     * @return the number of bytes read
+     * @throws IOException
+     */
+    private static int readAt(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        int total = 0;
+        while(buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if(read < 0) break;
+            total += read;
+        }
+
+        return total;
+    }
+
+    /**
+     * Receives decompressed bytes.
+     */
+    private interface Sink {
+        /**
+         * Receive the given bytes, which are only valid during the call.
+         *
+         * @param b
+         * @param offset
+         * @param length
+         * @throws IOException
+         */
+        void accept(byte[] b, int offset, int length) throws IOException;
+    }
+
+    /**
+     * Thrown when a member does not fit in the bytes left to buffer.
+     */
+    private static class MemberTooLargeException extends IOException {
+        MemberTooLargeException() {
+            super("Gzip member too large");
+        }
+    }
+
+    /**
+     * A possible member decompressed into memory by a worker.
+     */
+    private static class Member implements Sink {
+        final long start;
+        final AtomicLong buffered;
+        Future<?> decoded;
+        volatile boolean abandoned = false;
+        long end;
+        byte[] data;
+        int length = 0;
+        boolean tooLarge = false;
+        IOException error;
+
+        /**
+         * Create a new, empty Member starting at the given offset.
+         *
+         * @param start
+         * @param buffered the bytes held by every possible member
+         */
+        Member(long start, AtomicLong buffered) {
+            this.start = start;
+            this.buffered = buffered;
+        }
+
+        @Override
+        public void accept(byte[] b, int offset, int length) throws IOException {
+            if(abandoned || Thread.currentThread().isInterrupted())
+                throw new IOException("Interrupted");
+
+            int capacity = data == null ? 0 : data.length;
+            if(this.length + length > capacity) {
+                long grown = Math.max((long) capacity * 2, Math.max(BUFFER_SIZE, this.length + length));
+                if(grown > Integer.MAX_VALUE || buffered.addAndGet(grown - capacity) > MAX_BUFFERED) {
+                    if(grown <= Integer.MAX_VALUE) buffered.addAndGet(capacity - grown);
+                    throw new MemberTooLargeException();
+                }
+
+                data = data == null ? new byte[(int) grown] : Arrays.copyOf(data, (int) grown);
+            }
+
+            System.arraycopy(b, offset, data, this.length, length);
+            this.length += length;
+        }
+
+        /**
+         * Give the bytes of the member back to the budget of the buffered
+         * bytes, once they are parsed or not needed.
+         */
+        void release() {
+            if(data == null) return;
+
+            buffered.addAndGet(-data.length);
+            data = null;
+        }
+    }
+
+    /**
+     * Finds the offsets of the gzip magic bytes, ie. the possible members, in
+     * file order.
+     */
+    private static class MemberScanner {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private long bufferStart = 0;
+        private long position = 0;
+
+        /**
+         * Create a new MemberScanner at the start of the given file.
+         *
+         * @param channel
+         */
+        MemberScanner(FileChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        /**
+         * Find the next possible member.
+         *
+         * @return its offset, or -1 if there are no more
+         * @throws IOException
+         */
+        long next() throws IOException {
+            while(true) {
+                int end = buffer.limit() - 3;
+                for(int i = (int) (position - bufferStart); i < end; i++) {
+                    if((buffer.get(i) & 0xFF) == 0x1F && (buffer.get(i + 1) & 0xFF) == 0x8B
+                            && buffer.get(i + 2) == 8 && (buffer.get(i + 3) & 0xE0) == 0) {
+                        position = bufferStart + i + 1;
+                        return bufferStart + i;
+                    }
+                }
+
+                // Refill the buffer, keeping the bytes not yet checked.
+                position = bufferStart + Math.max(end, position - bufferStart);
+                if(position + 3 >= channel.size()) return -1;
+
+                bufferStart = position;
+                buffer.clear();
+                readAt(channel, buffer, bufferStart);
+                buffer.flip();
+            }
+        }
+
+        /**
+         * Skip ahead to the given offset.
+         *
+         * @param offset
+         */
+        void skipTo(long offset) {
+            if(offset <= position) return;
+
+            position = offset;
+            bufferStart = offset;
+            buffer.limit(0);
+        }
+    }
+
+    /**
+     * Splits decompressed bytes into lines and parses the complete lines,
+     * keeping a line that spans two chunks until its end arrives.
+     */
+    private static class LineFeeder implements Sink {
+        private final Consumer<int[]> out;
+        private byte[] carry = new byte[256];
+        private int carryLength = 0;
+        private long line = 1;
+
+        /**
+         * Create a new LineFeeder passing puzzles to the given consumer.
+         *
+         * @param out
+         */
+        LineFeeder(Consumer<int[]> out) {
+            this.out = out;
+        }
+
+        @Override
+        public void accept(byte[] b, int offset, int length) throws IOException {
+            int last = offset + length - 1;
+            while(last >= offset && b[last] != '\n') last--;
+
+            // No line ends in this chunk.
+            if(last < offset) {
+                append(b, offset, length);
+                return;
+            }
+
+            if(carryLength == 0) {
+                line = PuzzleParser.parseLines(
+                    ByteBuffer.wrap(b, offset, last + 1 - offset), line, out
+                );
+            } else {
+                append(b, offset, last + 1 - offset);
+                line = PuzzleParser.parseLines(ByteBuffer.wrap(carry, 0, carryLength), line, out);
+                carryLength = 0;
+            }
+
+            append(b, last + 1, offset + length - last - 1);
+        }
+
+        /**
+         * Parse the last line, if the file does not end with a line break.
+         *
+         * @throws IOException
+         */
+        void finish() throws IOException {
+            if(carryLength > 0)
+                line = PuzzleParser.parseLines(ByteBuffer.wrap(carry, 0, carryLength), line, out);
+            carryLength = 0;
+        }
+
+        /**
+         * Append bytes to the carried, incomplete line.
+         *
+         * @param b
+         * @param offset
+         * @param length
+         */
+        private void append(byte[] b, int offset, int length) {
+            if(carryLength + length > carry.length)
+                carry = Arrays.copyOf(carry, Math.max(carry.length * 2, carryLength + length));
+
+            System.arraycopy(b, offset, carry, carryLength, length);
+            carryLength += length;
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package gui.backend;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small JSON reader and writer for the settings and .theme files, so the
+ * app needs no JSON library.
+ *
+ * JSON values are read into plain Java objects:
+ *      - objects into a LinkedHashMap<String, Object>, keeping the key order;
+ *      - arrays into an ArrayList<Object>;
+ *      - strings into a String;
+ *      - numbers into a Long if they are integers, otherwise a Double;
+ *      - true and false into a Boolean; and
+ *      - null into null.
+ *
+ * The same objects, and any other Number, are written back as JSON.
+ */
+public final class Json {
+    private final String text;
+    private int pos = 0;
+
+    /**
+     * Create a new Json reader for the given text.
+     *
+     * @param text
+     */
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Read a JSON value from the given text.
+     *
+     * @param text
+     * @return Object
+     * @throws IOException if the text is not valid JSON
+     */
+    public static Object parse(String text) throws IOException {
+        Json json = new Json(text);
+        Object value = json.readValue();
+        json.skipWhitespace();
+        if(json.pos < text.length()) throw json.error("Unexpected text after the value");
+
+        return value;
+    }
+
+    /**
+     * Read a JSON object from the given text.
+     *
+     * @param text
+     * @return Map<String, Object>
+     * @throws IOException if the text is not a valid JSON object
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> parseObject(String text) throws IOException {
+        Object value = parse(text);
+        if(!(value instanceof Map)) throw new IOException("Expected a JSON object");
+
+        return (Map<String, Object>) value;
+    }
+
+    /**
+     * Write the given value as JSON, indented by 4 spaces.
+     *
+     * @param value
+     * @return String
+     */
+    public static String write(Object value) {
+        StringBuilder out = new StringBuilder();
+        write(value, out, 0);
+        return out.append('\n').toString();
+    }
+
+    /**
+     * Get a String from a JSON object.
+     *
+     * @param object
+     * @param key
+     * @param fallback returned if the key is missing or not a string
+     * @return String
+     */
+    public static String getString(Map<String, Object> object, String key, String fallback) {
+        Object value = object.get(key);
+        return value instanceof String ? (String) value : fallback;
+    }
+
+    /**
+     * Get an int from a JSON object.
+     *
+     * @param object
+     * @param key
+     * @param fallback returned if the key is missing or not a number
+     * @return int
+     */
+    public static int getInt(Map<String, Object> object, String key, int fallback) {
+        Object value = object.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : fallback;
+    }
+
+    /**
+     * Get a boolean from a JSON object.
+     *
+     * @param object
+     * @param key
+     * @param fallback returned if the key is missing or not a boolean
+     * @return boolean
+     */
+    public static boolean getBoolean(Map<String, Object> object, String key, boolean fallback) {
+        Object value = object.get(key);
+        return value instanceof Boolean ? (Boolean) value : fallback;
+    }
+
+    /**
+     * Get a nested object from a JSON object.
+     *
+     * @param object
+     * @param key
+     * @return Map<String, Object>, or an empty map if the key is missing or
+     *         not an object
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> getObject(Map<String, Object> object, String key) {
+        Object value = object.get(key);
+        return value instanceof Map ? (Map<String, Object>) value : new LinkedHashMap<>();
+    }
+
+    /**
+     * Write a value as JSON.
+     *
+     * @param value
+     * @param out
+     * @param indent the indentation of the value's line
+     */
+    private static void write(Object value, StringBuilder out, int indent) {
+        if(value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            if(map.isEmpty()) {
+                out.append("{}");
+                return;
+            }
+
+            out.append('{');
+            boolean first = true;
+            for(Map.Entry<?, ?> entry : map.entrySet()) {
+                out.append(first ? "\n" : ",\n");
+                indent(out, indent + 1);
+                writeString(String.valueOf(entry.getKey()), out);
+                out.append(": ");
+                write(entry.getValue(), out, indent + 1);
+                first = false;
+            }
+            out.append('\n');
+            indent(out, indent);
+            out.append('}');
+        } else if(value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.append('[');
+            for(int i = 0; i < list.size(); i++) {
+                if(i > 0) out.append(", ");
+                write(list.get(i), out, indent);
+            }
+            out.append(']');
+        } else if(value instanceof String) {
+            writeString((String) value, out);
+        } else if(value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            if(Double.isNaN(number) || Double.isInfinite(number)) out.append("null");
+            else out.append(number);
+        } else {
+            // Other numbers, booleans, and null.
+            out.append(value);
+        }
+    }
+
+    /**
+     * Write a quoted, escaped JSON string.
+     *
+     * @param value
+     * @param out
+     */
+    private static void writeString(String value, StringBuilder out) {
+        out.append('"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch(c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if(c < 0x20) out.append(String.format("\\u%04x", (int) c));
+                    else out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Indent a line by 4 spaces per level.
+     *
+     * @param out
+     * @param indent
+     */
+    private static void indent(StringBuilder out, int indent) {
+        for(int i = 0; i < indent; i++) out.append("    ");
+    }
+
+    /**
+     * Read the value at the current position.
+     *
+     * @return Object
+     * @throws IOException
+     */
+    private Object readValue() throws IOException {
+        skipWhitespace();
+        if(pos >= text.length()) throw error("Unexpected end of text");
+
+        char c = text.charAt(pos);
+        switch(c) {
+            case '{': return readObject();
+            case '[': return readArray();
+            case '"': return readString();
+            case 't': return readWord("true", Boolean.TRUE);
+            case 'f': return readWord("false", Boolean.FALSE);
+            case 'n': return readWord("null", null);
+            default:
+                if(c == '-' || (c >= '0' && c <= '9')) return readNumber();
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    /**
+     * Read the object at the current position.
+     *
+     * @return Map<String, Object>
+     * @throws IOException
+     */
+    private Map<String, Object> readObject() throws IOException {
+        Map<String, Object> object = new LinkedHashMap<>();
+        pos++;
+        skipWhitespace();
+        if(peek() == '}') {
+            pos++;
+            return object;
+        }
+
+        while(true) {
+            skipWhitespace();
+            if(peek() != '"') throw error("Expected a key");
+            String key = readString();
+
+            skipWhitespace();
+            expect(':');
+            object.put(key, readValue());
+
+            skipWhitespace();
+            if(peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return object;
+            }
+        }
+    }
+
+    /**
+     * Read the array at the current position.
+     *
+     * @return List<Object>
+     * @throws IOException
+     */
+    private List<Object> readArray() throws IOException {
+        List<Object> array = new ArrayList<>();
+        pos++;
+        skipWhitespace();
+        if(peek() == ']') {
+            pos++;
+            return array;
+        }
+
+        while(true) {
+            array.add(readValue());
+
+            skipWhitespace();
+            if(peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return array;
+            }
+        }
+    }
+
+    /**
+     * Read the string at the current position.
+     *
+     * @return String
+     * @throws IOException
+     */
+    private String readString() throws IOException {
+        pos++;
+        int start = pos;
+
+        // Most strings have no escapes, and are returned without copying
+        // character by character.
+        while(pos < text.length()) {
+            char c = text.charAt(pos);
+            if(c == '"') return text.substring(start, pos++);
+            if(c == '\\') break;
+            pos++;
+        }
+
+        StringBuilder out = new StringBuilder(text.substring(start, pos));
+        while(pos < text.length()) {
+            char c = text.charAt(pos++);
+            if(c == '"') return out.toString();
+            if(c != '\\') {
+                out.append(c);
+                continue;
+            }
+
+            if(pos >= text.length()) break;
+            char escape = text.charAt(pos++);
+            switch(escape) {
+                case '"': case '\\': case '/': out.append(escape); break;
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'n': out.append('\n'); break;
+                case 'r': out.append('\r'); break;
+                case 't': out.append('\t'); break;
+                case 'u':
+                    if(pos + 4 > text.length()) throw error("Invalid escape");
+                    try {
+                        out.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    } catch(NumberFormatException e) {
+                        throw error("Invalid escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    throw error("Invalid escape '\\" + escape + "'");
+            }
+        }
+
+        throw error("Unterminated string");
+    }
+
+    /**
+     * Read the number at the current position.
+     *
+     * @return Long or Double
+     * @throws IOException
+     */
+    private Number readNumber() throws IOException {
+        int start = pos;
+        boolean integer = true;
+        if(peek() == '-') pos++;
+        while(pos < text.length()) {
+            char c = text.charAt(pos);
+            if(c >= '0' && c <= '9') {
+                pos++;
+            } else if(c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                integer = false;
+                pos++;
+            } else {
+                break;
+            }
+        }
+
+        String number = text.substring(start, pos);
+        try {
+            if(integer) return Long.parseLong(number);
+            return Double.parseDouble(number);
+        } catch(NumberFormatException e) {
+            pos = start;
+            throw error("Invalid number " + number);
+        }
+    }
+
+    /**
+     * Read the given literal word at the current position.
+     *
+     * @param word
+     * @param value the value of the word
+     * @return value
+     * @throws IOException
+     */
+    private Object readWord(String word, Object value) throws IOException {
+        if(!text.startsWith(word, pos)) throw error("Unexpected word");
+
+        pos += word.length();
+        return value;
+    }
+
+    /**
+     * Skip the given character, which must be at the current position.
+     *
+     * @param c
+     * @throws IOException
+     */
+    private void expect(char c) throws IOException {
+        if(peek() != c) throw error("Expected '" + c + "'");
+        pos++;
+    }
+
+    /**
+     * Get the character at the current position.
+     *
+     * @return char, or 0 at the end of the text
+     */
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : 0;
+    }
+
+    /**
+     * Skip whitespace from the current position.
+     */
+    private void skipWhitespace() {
+        while(pos < text.length()) {
+            char c = text.charAt(pos);
+            if(c != ' ' && c != '\n' && c != '\r' && c != '\t') return;
+            pos++;
+        }
+    }
+
+    /**
+     * Create an exception for invalid JSON at the current position.
+     *
+     * @param message
+     * @return IOException
+     */
+    private IOException error(String message) {
+        int line = 1;
+        int column = 1;
+        for(int i = 0; i < pos && i < text.length(); i++) {
+            if(text.charAt(i) == '\n') {
+                line++;
+                column = 1;
+            } else {
+                column++;
+            }
+        }
+
+        return new IOException(message + " at line " + line + ", column " + column);
+    }
+}
@@ -0,0 +1,467 @@
+package gui.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The LocalSearchSolver is a simulated annealing solver for very large or
+ * nearly empty grids, where exhaustive search is too slow.
+ *
+ * Unlike the other solvers, it works on any n x n grid where n is a perfect
+ * square (9x9, 16x16, 25x25, ...). Every box is filled with the digits it is
+ * missing, so only rows and columns can have conflicts. The search then swaps
+ * two non-given cells within a box, keeping swaps that do not increase the
+ * number of conflicts and occasionally accepting worse swaps depending on
+ * the temperature, until no conflicts are left.
+ *
+ * Several independent chains are run on separate threads, each with its own
+ * seed, and the first valid grid found is returned. Local search cannot
+ * prove that a puzzle has no solution, so a time limit should be set when
+ * the puzzle may be invalid.
+ */
+public class LocalSearchSolver implements Solver {
+    // The rate at which the temperature cools after every chain of moves.
+    private static final double COOLING = 0.99;
+
+    // Reheat the chain if the cost has not improved for this many chains.
+    private static final int REHEAT_AFTER = 50;
+
+    private final int[][] givens;
+    private final int n;
+    private final int k;
+    private final long seed;
+    private int threads;
+    private long timeLimit = 0;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private volatile boolean lastCancelled = false;
+
+    // Set once a solve has its result, to stop the remaining chains.
+    private volatile boolean finished = false;
+
+    /**
+     * Create a new LocalSearchSolver for the givens of the given grid, running
+     * one chain per available processor.
+     *
+     * @param grid
+     * @param seed
+     */
+    public LocalSearchSolver(Cell[][] grid, long seed) {
+        this(grid, seed, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a new LocalSearchSolver for the givens of the given grid, running
+     * the given number of independent chains.
+     *
+     * @param grid
+     * @param seed
+     * @param threads
+     */
+    public LocalSearchSolver(Cell[][] grid, long seed, int threads) {
+        n = grid.length;
+        k = (int) Math.round(Math.sqrt(n));
+        if(k * k != n)
+            throw new IllegalArgumentException(
+                "Grid size " + n + " is not a perfect square."
+            );
+
+        givens = new int[n][n];
+        for(int row = 0; row < n; row++) {
+            for(int col = 0; col < n; col++) {
+                int value = grid[row][col].getValue();
+                givens[row][col] = (value >= 1 && value <= n) ? value : 0;
+            }
+        }
+
+        this.seed = seed;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Set the time limit of a solve in milliseconds, 0 for no limit.
+     *
+     * @param timeLimit
+     */
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Cancel the solve running on another thread, or the next solve if none
+     * is running.
+     */
+    @Override
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    /**
+     * Check if the last solve that returned was cancelled.
+     *
+     * @return boolean
+     */
+    @Override
+    public boolean isCancelled() {
+        return lastCancelled;
+    }
+
+    /**
+     * Solve the puzzle, returning the first valid grid found by any chain.
+     *
+     * The result is verified with SudokuChecker.isValidSolution(), and the
+     * givens are checked to be unchanged.
+     *
+     * @return Cell[][], or null if the time limit was reached, the solve was
+     *         cancelled, or the givens already break a Sudoku rule
+     */
+    @Override
+    public Cell[][] solve() {
+        try {
+            return search();
+        } finally {
+            lastCancelled = cancelled.getAndSet(false);
+        }
+    }
+
+    /**
+     * Run the chains until one of them finds a valid grid, they all give up,
+     * or the solve is cancelled.
+     *
+     * @return Cell[][], or null
+     */
+    private Cell[][] search() {
+        if(cancelled.get() || !givensAreConsistent()) return null;
+        finished = false;
+
+        long deadline = timeLimit > 0 ?
+            System.currentTimeMillis() + timeLimit : Long.MAX_VALUE;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "local-search");
+            t.setDaemon(true);
+            return t;
+        });
+
+        ExecutorCompletionService<int[][]> chains =
+            new ExecutorCompletionService<>(pool);
+        for(int i = 0; i < threads; i++) {
+            final long chainSeed = seed + i;
+            chains.submit(() -> new Chain(chainSeed, deadline).run());
+        }
+
+        try {
+            for(int i = 0; i < threads; i++) {
+                int[][] values;
+                try {
+                    values = chains.take().get();
+                } catch(ExecutionException e) {
+                    System.out.println("Local search chain failed: " + e.getCause());
+                    continue;
+                }
+                if(values == null) continue;
+
+                Cell[][] grid = toGrid(values);
+                if(SudokuChecker.isValidSolution(grid) && keepsGivens(values))
+                    return grid;
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Stop the remaining chains.
+            finished = true;
+            pool.shutdownNow();
+        }
+
+        return null;
+    }
+
+    /**
+     * Check that no two givens in the same row, column, or box are equal.
+     *
+     * @return boolean
+     */
+    private boolean givensAreConsistent() {
+        boolean[][] rows = new boolean[n][n + 1];
+        boolean[][] cols = new boolean[n][n + 1];
+        boolean[][] boxes = new boolean[n][n + 1];
+
+        for(int row = 0; row < n; row++) {
+            for(int col = 0; col < n; col++) {
+                int value = givens[row][col];
+                if(value == 0) continue;
+
+                int box = (row / k) * k + col / k;
+                if(rows[row][value] || cols[col][value] || boxes[box][value])
+                    return false;
+
+                rows[row][value] = true;
+                cols[col][value] = true;
+                boxes[box][value] = true;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check that a solved grid did not change any of the givens.
+     *
+     * @param values
+     * @return boolean
+     */
+    private boolean keepsGivens(int[][] values) {
+        for(int row = 0; row < n; row++) {
+            for(int col = 0; col < n; col++) {
+                if(givens[row][col] != 0 && givens[row][col] != values[row][col])
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Convert an array of values into a new grid of Cells.
+     *
+     * @param values
+     * @return Cell[][]
+     */
+    private Cell[][] toGrid(int[][] values) {
+        Cell[][] grid = new Cell[n][n];
+        for(int row = 0; row < n; row++) {
+            for(int col = 0; col < n; col++)
+                grid[row][col] = new Cell(row, col, values[row][col]);
+        }
+
+        return grid;
+    }
+
+    /**
+     * A single, independent annealing chain.
+     */
+    private class Chain {
+        private final Random random;
+        private final long deadline;
+
+        private final int[][] values = new int[n][n];
+
+        // How many times each digit occurs in every row and column.
+        private final int[][] rowCounts = new int[n][n + 1];
+        private final int[][] colCounts = new int[n][n + 1];
+
+        // The row * n + col positions of the non-given cells of every box.
+        private final int[][] free = new int[n][];
+
+        /**
+         * Create a new chain with its own seed.
+         *
+         * @param seed
+         * @param deadline
+         */
+        Chain(long seed, long deadline) {
+            this.random = new Random(seed);
+            this.deadline = deadline;
+        }
+
+        /**
+         * Run the chain until it finds a grid without conflicts, the deadline
+         * passes, or the solve is cancelled.
+         *
+         * @return int[][], or null if no solution was found
+         */
+        int[][] run() {
+            fillBoxes();
+
+            int movable = 0;
+            int chainLength = 0;
+            for(int box = 0; box < n; box++) {
+                if(free[box].length > 1) movable++;
+                chainLength += free[box].length * free[box].length;
+            }
+
+            if(cost() == 0) return values;
+            if(movable == 0) return null;
+
+            double initial = initialTemperature();
+            int cost = cost();
+            double temperature = initial;
+            int best = cost;
+            int stale = 0;
+
+            while(!cancelled.get() && !finished) {
+                if(System.currentTimeMillis() > deadline) return null;
+
+                for(int i = 0; i < chainLength; i++) {
+                    cost += tryMove(temperature);
+                    if(cost == 0) return values;
+                }
+
+                // Reheat when the chain is stuck in a local minimum.
+                if(cost < best) {
+                    best = cost;
+                    stale = 0;
+                } else if(++stale > REHEAT_AFTER) {
+                    temperature = initial;
+                    best = cost;
+                    stale = 0;
+                    continue;
+                }
+
+                temperature *= COOLING;
+            }
+
+            return null;
+        }
+
+        /**
+         * Fill every box with the digits it is missing, in a random order.
+         */
+        private void fillBoxes() {
+            for(int box = 0; box < n; box++) {
+                boolean[] used = new boolean[n + 1];
+                List<Integer> cells = new ArrayList<>();
+
+                for(int i = 0; i < n; i++) {
+                    int row = (box / k) * k + i / k;
+                    int col = (box % k) * k + i % k;
+                    if(givens[row][col] != 0) {
+                        values[row][col] = givens[row][col];
+                        used[givens[row][col]] = true;
+                    } else cells.add(row * n + col);
+                }
+
+                List<Integer> missing = new ArrayList<>();
+                for(int value = 1; value <= n; value++)
+                    if(!used[value]) missing.add(value);
+
+                Collections.shuffle(missing, random);
+                free[box] = new int[cells.size()];
+                for(int i = 0; i < cells.size(); i++) {
+                    int position = cells.get(i);
+                    free[box][i] = position;
+                    values[position / n][position % n] = missing.get(i);
+                }
+            }
+
+            for(int row = 0; row < n; row++) {
+                for(int col = 0; col < n; col++) {
+                    rowCounts[row][values[row][col]]++;
+                    colCounts[col][values[row][col]]++;
+                }
+            }
+        }
+
+        /**
+         * The number of conflicts in the grid, ie. the number of digits
+         * missing from every row and column.
+         *
+         * @return int
+         */
+        private int cost() {
+            int cost = 0;
+            for(int i = 0; i < n; i++) {
+                for(int value = 1; value <= n; value++) {
+                    if(rowCounts[i][value] == 0) cost++;
+                    if(colCounts[i][value] == 0) cost++;
+                }
+            }
+
+            return cost;
+        }
+
+        /**
+         * Estimate a starting temperature from the standard deviation of the
+         * cost changes of a sample of random moves.
+         *
+         * @return double
+         */
+        private double initialTemperature() {
+            int samples = Math.max(20, n * 2);
+            double sum = 0;
+            double squares = 0;
+
+            for(int i = 0; i < samples; i++) {
+                int delta = tryMove(Double.POSITIVE_INFINITY);
+                sum += delta;
+                squares += (double) delta * delta;
+            }
+
+            double mean = sum / samples;
+            double deviation = Math.sqrt(Math.max(0, squares / samples - mean * mean));
+            return Math.max(deviation, 0.5);
+        }
+
+        /**
+         * Swap two random non-given cells in a random box, and undo the swap
+         * if it is rejected at the given temperature.
+         *
+         * @param temperature
+         * @return the change in cost
+         */
+        private int tryMove(double temperature) {
+            int box = random.nextInt(n);
+            int[] cells = free[box];
+            if(cells.length < 2) return 0;
+
+            int a = random.nextInt(cells.length);
+            int b = random.nextInt(cells.length - 1);
+            if(b >= a) b++;
+
+            int first = cells[a];
+            int second = cells[b];
+            int delta = swap(first, second);
+
+            if(delta <= 0 ||
+                    random.nextDouble() < Math.exp(-delta / temperature))
+                return delta;
+
+            swap(first, second);
+            return 0;
+        }
+
+        /**
+         * Swap the values of the two given cells.
+         *
+         * @param first
+         * @param second
+         * @return the change in cost
+         */
+        private int swap(int first, int second) {
+            int r1 = first / n, c1 = first % n;
+            int r2 = second / n, c2 = second % n;
+            int v1 = values[r1][c1];
+            int v2 = values[r2][c2];
+
+            int delta = 0;
+            delta += remove(rowCounts[r1], v1) + add(rowCounts[r1], v2);
+            delta += remove(rowCounts[r2], v2) + add(rowCounts[r2], v1);
+            delta += remove(colCounts[c1], v1) + add(colCounts[c1], v2);
+            delta += remove(colCounts[c2], v2) + add(colCounts[c2], v1);
+
+            values[r1][c1] = v2;
+            values[r2][c2] = v1;
+            return delta;
+        }
+
+        /**
+         * Decrease the count of a digit, returning the change in cost.
+         */
+        private int remove(int[] counts, int value) {
+            return --counts[value] == 0 ? 1 : 0;
+        }
+
+        /**
+         * Increase the count of a digit, returning the change in cost.
+         */
+        private int add(int[] counts, int value) {
+            return counts[value]++ == 0 ? -1 : 0;
+        }
+    }
+}
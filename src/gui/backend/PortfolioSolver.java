@@ -0,0 +1,313 @@
+package gui.backend;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The PortfolioSolver races several strategies on the same puzzle, each on
+ * its own thread, for latency-critical solves.
+ *
+ * A strategy is any Solver with a name, for eg. the back-tracking search,
+ * the restart search with different seeds, or the local search. The first
+ * strategy to find a solution wins, and the others are cancelled
+ * cooperatively through Solver.cancel().
+ *
+ * Strategies that search exhaustively are marked as complete: if one of them
+ * finishes without a solution and was not cancelled, the puzzle has no
+ * solution and the race ends.
+ *
+ * solve() only returns once every strategy of the race has stopped, so the
+ * same portfolio and strategies can race again, for eg. after a cancel().
+ * Only the strategies still running are cancelled, so no cancellation is
+ * left over for the next race.
+ * The SolverDispatcher uses a PortfolioSolver as its "portfolio" engine.
+ *
+ * The winner of every race is counted, so the portfolio can be tuned from
+ * real traffic with getWins().
+ */
+public class PortfolioSolver implements Solver {
+    // Wins of every strategy name over all races.
+    private static final Map<String, LongAdder> wins = new ConcurrentHashMap<>();
+
+    private final ArrayList<String> names = new ArrayList<>();
+    private final ArrayList<Solver> solvers = new ArrayList<>();
+    private final ArrayList<Boolean> complete = new ArrayList<>();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private volatile boolean lastCancelled = false;
+
+    // The strategies of the running race that returned, and those that were
+    // cancelled, or null between races. Guarded by this.
+    private boolean[] returned;
+    private boolean[] stopped;
+
+    // Result of the last race.
+    private volatile String winner;
+    private volatile long elapsed;
+
+    /**
+     * Create a new, empty PortfolioSolver. Strategies must be added with
+     * addStrategy() before solving.
+     */
+    public PortfolioSolver() {}
+
+    /**
+     * Create a PortfolioSolver for the given puzzle with the default
+     * strategies: the back-tracking search, the restart search with a
+     * different seed for each remaining thread, and a single local search
+     * chain.
+     *
+     * @param grid
+     * @param threads the number of strategies to race, at least 3
+     * @return PortfolioSolver
+     */
+    public static PortfolioSolver createDefault(Cell[][] grid, int threads) {
+        PortfolioSolver portfolio = new PortfolioSolver();
+        portfolio.addStrategy(
+            SolverDispatcher.BACKTRACK,
+            SolverDispatcher.createSolver(SolverDispatcher.BACKTRACK, grid),
+            true
+        );
+
+        for(int seed = 1; seed <= Math.max(1, threads - 2); seed++)
+            portfolio.addStrategy(
+                SolverDispatcher.RESTART + "-" + seed,
+                new RestartSolver(grid, seed),
+                true
+            );
+
+        LocalSearchSolver local = new LocalSearchSolver(grid, 0, 1);
+        portfolio.addStrategy(SolverDispatcher.LOCAL, local, false);
+
+        return portfolio;
+    }
+
+    /**
+     * Add a strategy to the race.
+     *
+     * @param name the name reported if the strategy wins
+     * @param solver
+     * @param complete true if the solver returning null proves there is no
+     *                 solution
+     */
+    public void addStrategy(String name, Solver solver, boolean complete) {
+        names.add(name);
+        solvers.add(solver);
+        this.complete.add(complete);
+    }
+
+    /**
+     * Race every strategy and return the first solution found. A cancel()
+     * made before the race started stops it as well, and is consumed when
+     * it returns.
+     *
+     * @return the solved grid, or null if there is no solution or the race
+     *         was cancelled
+     */
+    @Override
+    public Cell[][] solve() {
+        try {
+            return race();
+        } finally {
+            lastCancelled = cancelled.getAndSet(false);
+        }
+    }
+
+    /**
+     * Race every strategy until one decides the puzzle, every strategy gave
+     * up, or the race is cancelled.
+     *
+     * @return the solved grid, or null
+     */
+    private Cell[][] race() {
+        winner = null;
+        long start = System.nanoTime();
+        if(solvers.isEmpty() || cancelled.get()) return null;
+
+        synchronized(this) {
+            returned = new boolean[solvers.size()];
+            stopped = new boolean[solvers.size()];
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(solvers.size(), r -> {
+            Thread t = new Thread(r, "portfolio");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // Every task returns its own index alongside the result.
+        ExecutorCompletionService<Object[]> race =
+            new ExecutorCompletionService<>(pool);
+        for(int i = 0; i < solvers.size(); i++) {
+            final int index = i;
+            race.submit(() -> {
+                try {
+                    return new Object[] {index, solvers.get(index).solve()};
+                } finally {
+                    markReturned(index);
+                }
+            });
+        }
+
+        try {
+            for(int i = 0; i < solvers.size() && !cancelled.get(); i++) {
+                Object[] result;
+                try {
+                    result = race.take().get();
+                } catch(ExecutionException e) {
+                    System.out.println("Portfolio strategy failed: " + e.getCause());
+                    continue;
+                }
+
+                int index = (Integer) result[0];
+                Cell[][] solution = (Cell[][]) result[1];
+                if(solution != null) {
+                    finish(names.get(index), start);
+                    return solution;
+                }
+
+                // A complete strategy that ran to the end without a solution
+                // proves there is none.
+                Solver solver = solvers.get(index);
+                if(complete.get(index) && !solver.isCancelled() && !cancelled.get()) {
+                    finish(names.get(index), start);
+                    return null;
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stop(pool);
+        }
+
+        elapsed = System.nanoTime() - start;
+        return null;
+    }
+
+    /**
+     * Cancel the race running on another thread, or the next race if none
+     * is running.
+     */
+    @Override
+    public void cancel() {
+        cancelled.set(true);
+        stopStrategies();
+    }
+
+    /**
+     * Check if the last race that returned was cancelled.
+     *
+     * @return boolean
+     */
+    @Override
+    public boolean isCancelled() {
+        return lastCancelled;
+    }
+
+    /**
+     * Get the name of the strategy that decided the last race.
+     *
+     * @return String, or null if no strategy finished
+     */
+    public String getWinner() {
+        return winner;
+    }
+
+    /**
+     * Get the time in nanoseconds the last race took.
+     *
+     * @return long
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * Get how many races every strategy has won since the app started.
+     *
+     * @return a sorted copy of the win counts by strategy name
+     */
+    public static Map<String, Long> getWins() {
+        Map<String, Long> copy = new TreeMap<>();
+        for(Map.Entry<String, LongAdder> e : wins.entrySet())
+            copy.put(e.getKey(), e.getValue().sum());
+
+        return copy;
+    }
+
+    /**
+     * Stop every strategy of the race and wait until they returned.
+     *
+     * Strategies that have not started yet still run, and return at once as
+     * they are cancelled. A strategy that returned just before it was
+     * cancelled keeps the cancellation for its next solve, so that solve is
+     * run here, and returns at once too.
+     *
+     * @param pool
+     */
+    private void stop(ExecutorService pool) {
+        stopStrategies();
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        boolean[] cancelledStrategies;
+        synchronized(this) {
+            cancelledStrategies = stopped;
+            returned = null;
+            stopped = null;
+        }
+
+        for(int i = 0; i < solvers.size(); i++) {
+            if(cancelledStrategies[i] && !solvers.get(i).isCancelled()) solvers.get(i).solve();
+        }
+    }
+
+    /**
+     * Cancel every strategy of the running race that has not returned yet.
+     */
+    private synchronized void stopStrategies() {
+        if(returned == null) return;
+
+        for(int i = 0; i < solvers.size(); i++) {
+            if(returned[i] || stopped[i]) continue;
+
+            solvers.get(i).cancel();
+            stopped[i] = true;
+        }
+    }
+
+    /**
+     * Mark a strategy of the running race as returned, so it is not
+     * cancelled anymore.
+     *
+     * @param index
+     */
+    private synchronized void markReturned(int index) {
+        if(returned != null) returned[index] = true;
+    }
+
+    /**
+     * Record the winner of a race.
+     *
+     * @param name
+     * @param start
+     */
+    private void finish(String name, long start) {
+        elapsed = System.nanoTime() - start;
+        winner = name;
+        wins.computeIfAbsent(name, n -> new LongAdder()).increment();
+    }
+}
@@ -0,0 +1,99 @@
+package gui.backend;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The PuzzleCodec packs 9x9 puzzles into bytes and back, for the binary
+ * puzzle stores.
+ *
+ * Every cell takes 4 bits, holding its value or 0 for an empty cell, so a
+ * puzzle of 81 cells takes 41 bytes. The cells are stored in row-major
+ * order, two per byte, with the even cell in the high 4 bits. The low 4 bits
+ * of the last byte are unused and always 0.
+ *
+ * Puzzles are int[81] arrays of values in row-major order, as returned by
+ * the PuzzleParser.
+ */
+public final class PuzzleCodec {
+    // The number of bytes of a packed puzzle.
+    public static final int PACKED_SIZE = 41;
+
+    /**
+     * The PuzzleCodec only has static methods.
+     */
+    private PuzzleCodec() {}
+
+    /**
+     * Pack a puzzle into the given buffer at the given index, without
+     * changing the buffer's position.
+     *
+     * @param values int[81]
+     * @param out
+     * @param index
+     */
+    public static void pack(int[] values, ByteBuffer out, int index) {
+        for(int i = 0; i < PACKED_SIZE; i++) {
+            int high = values[2 * i];
+            int low = 2 * i + 1 < 81 ? values[2 * i + 1] : 0;
+            out.put(index + i, (byte) ((high << 4) | low));
+        }
+    }
+
+    /**
+     * Pack a puzzle into the given buffer at its position, and advance the
+     * position past it.
+     *
+     * @param values int[81]
+     * @param out
+     */
+    public static void pack(int[] values, ByteBuffer out) {
+        pack(values, out, out.position());
+        out.position(out.position() + PACKED_SIZE);
+    }
+
+    /**
+     * Unpack a puzzle from the given buffer at the given index, without
+     * changing the buffer's position.
+     *
+     * @param in
+     * @param index
+     * @param values the int[81] array to unpack into
+     * @return values
+     */
+    public static int[] unpack(ByteBuffer in, int index, int[] values) {
+        for(int i = 0; i < PACKED_SIZE; i++) {
+            int b = in.get(index + i) & 0xFF;
+            values[2 * i] = b >>> 4;
+            if(2 * i + 1 < 81) values[2 * i + 1] = b & 0xF;
+        }
+
+        return values;
+    }
+
+    /**
+     * Unpack a puzzle from the given buffer at the given index into a new
+     * array.
+     *
+     * @param in
+     * @param index
+     * @return int[81]
+     */
+    public static int[] unpack(ByteBuffer in, int index) {
+        return unpack(in, index, new int[81]);
+    }
+
+    /**
+     * Check that a puzzle only holds values from 0 to 9.
+     *
+     * @param values
+     * @return boolean
+     */
+    public static boolean isValid(int[] values) {
+        if(values == null || values.length != 81) return false;
+        for(int value : values) {
+            if(value < 0 || value > 9) return false;
+        }
+
+        return true;
+    }
+}
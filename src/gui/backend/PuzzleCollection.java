@@ -0,0 +1,41 @@
+package gui.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A PuzzleCollection is a file of many puzzles that can be read in any
+ * order by ID, ie. the index of a puzzle in the file, without loading the
+ * whole file.
+ *
+ * Puzzles are int[81] arrays of values in row-major order, as returned by
+ * the PuzzleParser.
+ */
+public interface PuzzleCollection extends Closeable {
+    /**
+     * Get the number of puzzles in the collection.
+     *
+     * @return long
+     */
+    long size();
+
+    /**
+     * Get the puzzle with the given ID.
+     *
+     * @param id from 0 to size() - 1
+     * @return int[81]
+     * @throws IOException
+     */
+    int[] getPuzzle(long id) throws IOException;
+
+    /**
+     * Get the puzzle with the given ID as a new 9x9 grid of Cells.
+     *
+     * @param id from 0 to size() - 1
+     * @return Cell[][]
+     * @throws IOException
+     */
+    default Cell[][] getGrid(long id) throws IOException {
+        return PuzzleParser.toGrid(getPuzzle(id));
+    }
+}
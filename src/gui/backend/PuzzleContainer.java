@@ -0,0 +1,353 @@
+package gui.backend;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * A PuzzleContainer is a binary .sdkb file holding any number of puzzles,
+ * with random access to every puzzle by its ID, ie. its index in the file.
+ *
+ * The file starts with a 32 byte header:
+ *      - bytes 0-3 hold the magic number "SDKB";
+ *      - bytes 4-5 hold the format version, currently 1;
+ *      - bytes 6-7 hold the flags, HAS_SOLUTIONS and HAS_METADATA;
+ *      - bytes 8-11 hold the size of a record in bytes;
+ *      - bytes 12-19 hold the number of puzzles; and
+ *      - bytes 20-31 are reserved and always 0.
+ *
+ * The header is followed by one fixed-size record per puzzle, holding the
+ * puzzle packed by the PuzzleCodec (41 bytes), then its packed solution if
+ * the file has solutions, then a 4 byte metadata int (for eg. a difficulty
+ * rating) if the file has metadata. Since every record has the same size,
+ * the record of a puzzle is found at HEADER_SIZE + id * recordSize, and no
+ * separate index is needed.
+ *
+ * Containers are written with a PuzzleContainer.Writer, one puzzle at a time,
+ * and read by memory-mapping the file. All numbers are big-endian.
+ */
+public class PuzzleContainer implements PuzzleCollection {
+    public static final int MAGIC = 0x53444B42;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    public static final int HAS_SOLUTIONS = 1;
+    public static final int HAS_METADATA = 2;
+
+    // The largest part of a file that is mapped at once.
+    private static final long REGION_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final int flags;
+    private final int recordSize;
+    private final long count;
+
+    // The mapped regions, each holding regionRecords whole records.
+    private final ByteBuffer[] regions;
+    private final long regionRecords;
+
+    /**
+     * Open the given container file for reading.
+     *
+     * @param f
+     * @throws IOException if the file cannot be read or is not a container
+     */
+    public PuzzleContainer(File f) throws IOException {
+        channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while(header.hasRemaining() && channel.read(header) >= 0);
+            header.flip();
+
+            if(header.remaining() < HEADER_SIZE || header.getInt(0) != MAGIC)
+                throw new IOException(f.getName() + " is not a puzzle container");
+            if(header.getShort(4) != VERSION)
+                throw new IOException("Unsupported container version " + header.getShort(4));
+
+            flags = header.getShort(6);
+            recordSize = header.getInt(8);
+            if(recordSize != recordSize(flags))
+                throw new IOException("Invalid record size " + recordSize);
+
+            // A file that was not closed properly may hold fewer records than
+            // its header claims.
+            long stored = (channel.size() - HEADER_SIZE) / recordSize;
+            count = Math.min(header.getLong(12), stored);
+
+            regionRecords = REGION_SIZE / recordSize;
+            regions = new ByteBuffer[(int) ((count + regionRecords - 1) / regionRecords)];
+            for(int i = 0; i < regions.length; i++) {
+                long first = i * regionRecords;
+                long records = Math.min(regionRecords, count - first);
+                regions[i] = channel.map(
+                    FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE + first * recordSize,
+                    records * recordSize
+                );
+            }
+        } catch(IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the size of a record with the given flags.
+     *
+     * @param flags
+     * @return int
+     */
+    public static int recordSize(int flags) {
+        int size = PuzzleCodec.PACKED_SIZE;
+        if((flags & HAS_SOLUTIONS) != 0) size += PuzzleCodec.PACKED_SIZE;
+        if((flags & HAS_METADATA) != 0) size += 4;
+
+        return size;
+    }
+
+    /**
+     * Check if the given file is a puzzle container, from its name.
+     *
+     * @param f
+     * @return boolean
+     */
+    public static boolean isContainer(File f) {
+        return f.getName().toLowerCase().endsWith(".sdkb");
+    }
+
+    /**
+     * Get the number of puzzles in the container.
+     *
+     * @return long
+     */
+    @Override
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Check if the container holds the solution of every puzzle.
+     *
+     * @return boolean
+     */
+    public boolean hasSolutions() {
+        return (flags & HAS_SOLUTIONS) != 0;
+    }
+
+    /**
+     * Check if the container holds metadata for every puzzle.
+     *
+     * @return boolean
+     */
+    public boolean hasMetadata() {
+        return (flags & HAS_METADATA) != 0;
+    }
+
+    /**
+     * Get the puzzle with the given ID.
+     *
+     * @param id
+     * @return int[81]
+     */
+    @Override
+    public int[] getPuzzle(long id) {
+        return PuzzleCodec.unpack(region(id), offset(id));
+    }
+
+    /**
+     * Get the puzzle with the given ID as a new 9x9 grid of Cells.
+     *
+     * @param id
+     * @return Cell[][]
+     */
+    @Override
+    public Cell[][] getGrid(long id) {
+        return PuzzleParser.toGrid(getPuzzle(id));
+    }
+
+    /**
+     * Get the solution of the puzzle with the given ID.
+     *
+     * @param id
+     * @return int[81], or null if the container has no solutions
+     */
+    public int[] getSolution(long id) {
+        if(!hasSolutions()) return null;
+
+        return PuzzleCodec.unpack(region(id), offset(id) + PuzzleCodec.PACKED_SIZE);
+    }
+
+    /**
+     * Get the metadata of the puzzle with the given ID.
+     *
+     * @param id
+     * @return int, 0 if the container has no metadata
+     */
+    public int getMetadata(long id) {
+        if(!hasMetadata()) return 0;
+
+        return region(id).getInt(offset(id) + recordSize - 4);
+    }
+
+    /**
+     * Pass every puzzle, in order, to the given consumer as a new int[81]
+     * array.
+     *
+     * @param out
+     */
+    public void forEach(Consumer<int[]> out) {
+        for(long id = 0; id < count; id++) out.accept(getPuzzle(id));
+    }
+
+    /**
+     * Close the container. The mapped file is released once it is no
+     * longer referenced.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Get the mapped region holding the record of the given ID.
+     *
+     * @param id
+     * @return ByteBuffer
+     */
+    private ByteBuffer region(long id) {
+        if(id < 0 || id >= count)
+            throw new IndexOutOfBoundsException("Puzzle " + id + " of " + count);
+
+        return regions[(int) (id / regionRecords)];
+    }
+
+    /**
+     * Get the offset of the record of the given ID in its region.
+     *
+     * @param id
+     * @return int
+     */
+    private int offset(long id) {
+        return (int) (id % regionRecords) * recordSize;
+    }
+
+    /**
+     * A Writer streams puzzles into a new container file, buffering the
+     * records so the file is written in large blocks. The header is written
+     * when the Writer is closed.
+     */
+    public static class Writer implements Closeable {
+        // The size of the write buffer.
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private final FileChannel channel;
+        private final int flags;
+        private final ByteBuffer buffer;
+        private long count = 0;
+
+        /**
+         * Create a new, empty container file, replacing any existing file.
+         *
+         * @param f
+         * @param flags HAS_SOLUTIONS and/or HAS_METADATA, or 0
+         * @throws IOException
+         */
+        public Writer(File f, int flags) throws IOException {
+            this.flags = flags;
+            int recordSize = recordSize(flags);
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE / recordSize * recordSize);
+            this.channel = FileChannel.open(
+                f.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING
+            );
+
+            // Reserve the header, it is filled in by close().
+            channel.write(ByteBuffer.allocate(HEADER_SIZE));
+        }
+
+        /**
+         * Add a puzzle to the container, which must not hold solutions or
+         * metadata.
+         *
+         * @param puzzle int[81]
+         * @throws IOException
+         */
+        public void add(int[] puzzle) throws IOException {
+            add(puzzle, null, 0);
+        }
+
+        /**
+         * Add a puzzle with its solution and metadata to the container. The
+         * solution and metadata are ignored if the container does not hold
+         * them.
+         *
+         * @param puzzle int[81]
+         * @param solution int[81], required if the container has solutions
+         * @param metadata
+         * @throws IOException
+         */
+        public void add(int[] puzzle, int[] solution, int metadata) throws IOException {
+            if(!PuzzleCodec.isValid(puzzle))
+                throw new IllegalArgumentException("Invalid puzzle");
+            if((flags & HAS_SOLUTIONS) != 0 && !PuzzleCodec.isValid(solution))
+                throw new IllegalArgumentException("Invalid solution");
+
+            if(buffer.remaining() < recordSize(flags)) flush();
+
+            PuzzleCodec.pack(puzzle, buffer);
+            if((flags & HAS_SOLUTIONS) != 0) PuzzleCodec.pack(solution, buffer);
+            if((flags & HAS_METADATA) != 0) buffer.putInt(metadata);
+
+            count++;
+        }
+
+        /**
+         * Get the number of puzzles added so far.
+         *
+         * @return long
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Write the buffered records to the file.
+         *
+         * @throws IOException
+         */
+        private void flush() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * Write the remaining records and the header, and close the file.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC);
+                header.putShort((short) VERSION);
+                header.putShort((short) flags);
+                header.putInt(recordSize(flags));
+                header.putLong(count);
+                header.clear();
+
+                while(header.hasRemaining())
+                    channel.write(header, header.position());
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
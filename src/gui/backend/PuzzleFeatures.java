@@ -0,0 +1,131 @@
+package gui.backend;
+
+/**
+ * PuzzleFeatures are cheap measurements of a 9x9 puzzle used to predict which
+ * solving engine will be the fastest, without solving the puzzle.
+ *
+ * The features are:
+ *      - the number of clues;
+ *      - the propagation-only progress, ie. how many of the empty cells are
+ *          filled by naked and hidden singles alone; and
+ *      - the branching factor after singles, ie. the average number of
+ *          candidates of the cells still empty after propagation.
+ *
+ * Similar puzzles are grouped into a bucket, which is the key used by the
+ * CalibrationTable.
+ */
+public class PuzzleFeatures {
+    private final int clues;
+    private final int filledBySingles;
+    private final double branchingFactor;
+    private final boolean contradiction;
+
+    /**
+     * Compute the features of the given 9x9 grid.
+     *
+     * @param grid
+     */
+    public PuzzleFeatures(Cell[][] grid) {
+        SearchState state = new SearchState(grid);
+        clues = 81 - state.empty;
+
+        int empty = state.empty;
+        boolean consistent = state.consistent && state.propagate();
+        filledBySingles = empty - state.empty;
+        contradiction = !consistent;
+
+        int candidates = 0;
+        for(int i = 0; i < 81; i++) {
+            if(state.values[i] == 0)
+                candidates += Integer.bitCount(state.candidates(i));
+        }
+        branchingFactor = state.empty == 0 ? 0 : (double) candidates / state.empty;
+    }
+
+    /**
+     * Get the number of clues in the puzzle.
+     *
+     * @return int
+     */
+    public int getClues() {
+        return clues;
+    }
+
+    /**
+     * Get the number of empty cells filled by propagating singles.
+     *
+     * @return int
+     */
+    public int getFilledBySingles() {
+        return filledBySingles;
+    }
+
+    /**
+     * Get the fraction of the empty cells filled by propagating singles,
+     * between 0 and 1.
+     *
+     * @return double
+     */
+    public double getPropagationProgress() {
+        int empty = 81 - clues;
+        return empty == 0 ? 1 : (double) filledBySingles / empty;
+    }
+
+    /**
+     * Get the average number of candidates of the cells left empty after
+     * propagating singles, or 0 if singles solve the puzzle.
+     *
+     * @return double
+     */
+    public double getBranchingFactor() {
+        return branchingFactor;
+    }
+
+    /**
+     * Check if propagating singles showed the puzzle has no solution.
+     *
+     * @return boolean
+     */
+    public boolean hasContradiction() {
+        return contradiction;
+    }
+
+    /**
+     * Get the bucket of similar puzzles these features belong to, for eg.
+     * "c2.p1.b0". The bucket is made of a clue band (c0-c4), a propagation
+     * progress band (p0-p3, where p3 means singles solve the puzzle), and a
+     * branching factor band (b0-b2).
+     *
+     * @return String
+     */
+    public String getBucket() {
+        int clueBand;
+        if(clues < 22) clueBand = 0;
+        else if(clues < 26) clueBand = 1;
+        else if(clues < 30) clueBand = 2;
+        else if(clues < 36) clueBand = 3;
+        else clueBand = 4;
+
+        double progress = getPropagationProgress();
+        int progressBand;
+        if(progress >= 1) progressBand = 3;
+        else if(progress >= 0.5) progressBand = 2;
+        else if(progress >= 0.1) progressBand = 1;
+        else progressBand = 0;
+
+        int branchingBand;
+        if(branchingFactor < 2.5) branchingBand = 0;
+        else if(branchingFactor < 3.5) branchingBand = 1;
+        else branchingBand = 2;
+
+        return "c" + clueBand + ".p" + progressBand + ".b" + branchingBand;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "clues=%d singles=%d branching=%.2f bucket=%s",
+            clues, filledBySingles, branchingFactor, getBucket()
+        );
+    }
+}
@@ -0,0 +1,267 @@
+package gui.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A PuzzleIndex gives random access to the puzzles of a text file with one
+ * puzzle per line, using a sidecar index file next to it.
+ *
+ * The index of puzzles.txt is puzzles.txt.idx. It is built once by scanning
+ * the memory-mapped text file, and holds a 32 byte header followed by the
+ * byte offset of every puzzle line as a long:
+ *      - bytes 0-3 hold the magic number "SDKI";
+ *      - bytes 4-5 hold the format version, currently 1;
+ *      - bytes 6-7 are reserved and always 0;
+ *      - bytes 8-15 hold the size of the text file when it was indexed;
+ *      - bytes 16-23 hold the last modified time of the text file; and
+ *      - bytes 24-31 hold the number of puzzles.
+ *
+ * The index is memory-mapped too, so opening puzzle N reads one offset and
+ * one line of the text file, whatever the size of the file. If the text file
+ * changes, its index is rebuilt the next time it is opened.
+ */
+public class PuzzleIndex implements PuzzleCollection {
+    public static final int MAGIC = 0x53444B49;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    // The largest part of a file that is mapped at once.
+    private static final long REGION_SIZE = 1L << 30;
+    private static final long REGION_OFFSETS = REGION_SIZE / 8;
+
+    // The number of bytes read for a puzzle line.
+    private static final int LINE_SIZE = 81;
+
+    private final FileChannel source;
+    private final FileChannel indexChannel;
+    private final ByteBuffer[] regions;
+    private final long count;
+
+    /**
+     * Open the given text file with its index, which must be up to date.
+     *
+     * @param f
+     * @param index
+     * @throws IOException
+     */
+    private PuzzleIndex(File f, File index) throws IOException {
+        source = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        indexChannel = FileChannel.open(index.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readHeader(indexChannel);
+            count = Math.min(
+                header.getLong(24), (indexChannel.size() - HEADER_SIZE) / 8
+            );
+
+            regions = new ByteBuffer[(int) ((count + REGION_OFFSETS - 1) / REGION_OFFSETS)];
+            for(int i = 0; i < regions.length; i++) {
+                long first = i * REGION_OFFSETS;
+                long offsets = Math.min(REGION_OFFSETS, count - first);
+                regions[i] = indexChannel.map(
+                    FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * 8, offsets * 8
+                );
+            }
+        } catch(IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open the given text file for random access, building its index first
+     * if it has none or if the file changed since it was indexed.
+     *
+     * @param f
+     * @return PuzzleIndex
+     * @throws IOException
+     */
+    public static PuzzleIndex open(File f) throws IOException {
+        File index = indexFile(f);
+        if(!isUpToDate(f, index)) build(f, index);
+
+        return new PuzzleIndex(f, index);
+    }
+
+    /**
+     * Get the sidecar index file of the given text file.
+     *
+     * @param f
+     * @return File
+     */
+    public static File indexFile(File f) {
+        return new File(f.getPath() + ".idx");
+    }
+
+    /**
+     * Check if the given index file exists and matches the text file.
+     *
+     * @param f
+     * @param index
+     * @return boolean
+     */
+    public static boolean isUpToDate(File f, File index) {
+        if(!index.isFile()) return false;
+
+        try(FileChannel channel = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel);
+            return header.getLong(8) == f.length()
+                && header.getLong(16) == f.lastModified();
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Scan the given text file and write the offset of every puzzle line to
+     * the given index file. Blank lines and lines starting with # are not
+     * puzzles. The index is written to a temporary file first, so a failed
+     * build never leaves a broken index behind.
+     *
+     * @param f
+     * @param index
+     * @return the number of puzzles indexed
+     * @throws IOException
+     */
+    public static long build(File f, File index) throws IOException {
+        File tmp = new File(index.getPath() + ".tmp");
+        long count = 0;
+
+        try(FileChannel in = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(
+                    tmp.toPath(),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long modified = f.lastModified();
+            ByteBuffer offsets = ByteBuffer.allocateDirect(1 << 16);
+
+            // Reserve the header, it is filled in once the count is known.
+            out.write(ByteBuffer.allocate(HEADER_SIZE));
+
+            boolean lineStart = true;
+            for(long position = 0; position < size; position += REGION_SIZE) {
+                long length = Math.min(REGION_SIZE, size - position);
+                ByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                for(int i = 0; i < length; i++) {
+                    byte b = data.get(i);
+                    if(lineStart && PuzzleParser.cellValue(b, PuzzleParser.LINE) >= 0) {
+                        if(!offsets.hasRemaining()) write(out, offsets);
+                        offsets.putLong(position + i);
+                        count++;
+                    }
+                    lineStart = b == '\n';
+                }
+            }
+            write(out, offsets);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putShort((short) VERSION);
+            header.putShort((short) 0);
+            header.putLong(size);
+            header.putLong(modified);
+            header.putLong(count);
+            header.clear();
+            while(header.hasRemaining()) out.write(header, header.position());
+        }
+
+        Files.move(tmp.toPath(), index.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Get the number of puzzles in the file.
+     *
+     * @return long
+     */
+    @Override
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Get the byte offset of the puzzle with the given ID in the text file.
+     *
+     * @param id
+     * @return long
+     */
+    public long getOffset(long id) {
+        if(id < 0 || id >= count)
+            throw new IndexOutOfBoundsException("Puzzle " + id + " of " + count);
+
+        return regions[(int) (id / REGION_OFFSETS)].getLong((int) (id % REGION_OFFSETS) * 8);
+    }
+
+    /**
+     * Get the puzzle with the given ID, reading only its line of the text
+     * file.
+     *
+     * @param id
+     * @return int[81]
+     * @throws IOException if the line is not a valid puzzle
+     */
+    @Override
+    public int[] getPuzzle(long id) throws IOException {
+        ByteBuffer line = ByteBuffer.allocate(LINE_SIZE);
+        long offset = getOffset(id);
+        while(line.hasRemaining()) {
+            if(source.read(line, offset + line.position()) < 0) break;
+        }
+        line.flip();
+
+        return PuzzleParser.parse(line, PuzzleParser.LINE);
+    }
+
+    /**
+     * Close the text file and its index.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if(source != null) source.close();
+        } finally {
+            if(indexChannel != null) indexChannel.close();
+        }
+    }
+
+    /**
+     * Read and check the header of an index file.
+     *
+     * @param channel
+     * @return ByteBuffer
+     * @throws IOException if the file is not a valid index
+     */
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while(header.hasRemaining()) {
+            if(channel.read(header, header.position()) < 0) break;
+        }
+
+        if(header.hasRemaining() || header.getInt(0) != MAGIC || header.getShort(4) != VERSION)
+            throw new IOException("Invalid puzzle index");
+
+        return header;
+    }
+
+    /**
+     * Write the buffered offsets to the index file.
+     *
+     * @param out
+     * @param offsets
+     * @throws IOException
+     */
+    private static void write(FileChannel out, ByteBuffer offsets) throws IOException {
+        offsets.flip();
+        while(offsets.hasRemaining()) out.write(offsets);
+        offsets.clear();
+    }
+}
@@ -0,0 +1,43 @@
+package gui.backend;
+
+import java.io.IOException;
+
+/**
+ * Thrown by the PuzzleParser when a puzzle file is malformed, with the line
+ * and column of the problem. Lines and columns start at 1.
+ */
+public class PuzzleParseException extends IOException {
+    private final long line;
+    private final int column;
+
+    /**
+     * Create a new PuzzleParseException for the given position.
+     *
+     * @param message
+     * @param line
+     * @param column
+     */
+    public PuzzleParseException(String message, long line, int column) {
+        super("Line " + line + ", column " + column + ": " + message);
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * Get the line of the problem, starting at 1.
+     *
+     * @return long
+     */
+    public long getLine() {
+        return line;
+    }
+
+    /**
+     * Get the column of the problem, starting at 1.
+     *
+     * @return int
+     */
+    public int getColumn() {
+        return column;
+    }
+}
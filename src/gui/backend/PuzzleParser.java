@@ -0,0 +1,531 @@
+package gui.backend;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The PuzzleParser reads puzzles directly from bytes, without decoding the
+ * input into Strings first. Files are memory-mapped, so importing a large
+ * corpus is bounded by the disk rather than by parsing.
+ *
+ * The supported formats are:
+ *      - SDKU: the app's own .sdku format, 9 lines of 9 cells;
+ *      - LINE: one puzzle per line, 81 cells each, anything after the 81st
+ *          cell (for eg. a rating) is ignored, as are lines starting with #;
+ *      - SDK: SadMan Software Sudoku .sdk files, 9 lines of 9 cells with
+ *          optional # comment lines and [Section] headers; and
+ *      - SS: Simple Sudoku .ss files, 9 lines of 9 cells where the boxes are
+ *          separated by | and lines like ---!---!---.
+ *
+ * In every format, a cell is a digit 1-9, or . or 0 for an empty cell
+ * (Simple Sudoku also uses X). Puzzles are returned as int[81] arrays of
+ * values in row-major order, with 0 for empty cells.
+ *
+ * Gzip-compressed files (.gz) of any of these formats are decompressed while
+ * they are parsed, see GzipPuzzleReader.
+ *
+ * Malformed input is reported with a PuzzleParseException giving the line
+ * and column of the problem.
+ */
+public class PuzzleParser {
+    public static final int SDKU = 0;
+    public static final int LINE = 1;
+    public static final int SDK = 2;
+    public static final int SS = 3;
+
+    // The largest part of a file that is mapped at once.
+    private static final long CHUNK_SIZE = 1L << 28;
+
+    private final ByteBuffer data;
+    private final int format;
+    private final int limit;
+    private int pos;
+    private long line;
+
+    /**
+     * Create a new PuzzleParser over the remaining bytes of the given buffer.
+     *
+     * @param data
+     * @param format
+     * @param firstLine the line number of the first byte
+     */
+    private PuzzleParser(ByteBuffer data, int format, long firstLine) {
+        this.data = data;
+        this.format = format;
+        this.pos = data.position();
+        this.limit = data.limit();
+        this.line = firstLine;
+    }
+
+    /**
+     * Detect the format of a puzzle file from its name, and for unknown
+     * extensions from its first line.
+     *
+     * @param name
+     * @param data
+     * @return SDKU, LINE, SDK, or SS
+     */
+    public static int detectFormat(String name, ByteBuffer data) {
+        String lower = name.toLowerCase();
+        if(lower.endsWith(".sdku")) return SDKU;
+        if(lower.endsWith(".sdk")) return SDK;
+        if(lower.endsWith(".ss")) return SS;
+
+        // A first puzzle line with 81 or more cells is a one-puzzle-per-line
+        // file, so skip blank lines and comments to find it.
+        int i = data.position();
+        int limit = data.limit();
+        while(i < limit) {
+            byte b = data.get(i);
+            if(b == '#') {
+                while(i < limit && data.get(i) != '\n') i++;
+            } else if(b != ' ' && b != '\t' && b != '\r' && b != '\n') break;
+            i++;
+        }
+
+        int cells = 0;
+        for(; i < limit && cellValue(data.get(i), LINE) >= 0; i++) cells++;
+
+        return cells >= 81 ? LINE : SDKU;
+    }
+
+    /**
+     * Detect the format of the given puzzle file, reading at most its first
+     * few KB.
+     *
+     * @param f
+     * @return SDKU, LINE, SDK, or SS
+     * @throws IOException
+     */
+    public static int detectFormat(File f) throws IOException {
+        if(GzipPuzzleReader.isGzip(f)) {
+            try(InputStream in = new GZIPInputStream(new FileInputStream(f))) {
+                return detectFormat(gzipName(f), ByteBuffer.wrap(in.readNBytes(1 << 12)));
+            }
+        }
+
+        try(RandomAccessFile file = new RandomAccessFile(f, "r");
+                FileChannel channel = file.getChannel()) {
+            ByteBuffer data = ByteBuffer.allocate((int) Math.min(channel.size(), 1 << 12));
+            while(data.hasRemaining() && channel.read(data) >= 0);
+            data.flip();
+
+            return detectFormat(f.getName(), data);
+        }
+    }
+
+    /**
+     * Get the name of a gzip-compressed file without its .gz extension.
+     *
+     * @param f
+     * @return String
+     */
+    private static String gzipName(File f) {
+        String name = f.getName();
+        return name.substring(0, name.length() - 3);
+    }
+
+    /**
+     * Parse the first puzzle of the given buffer.
+     *
+     * @param data
+     * @param format
+     * @return int[81]
+     * @throws PuzzleParseException if the input is malformed or empty
+     */
+    public static int[] parse(ByteBuffer data, int format) throws PuzzleParseException {
+        PuzzleParser parser = new PuzzleParser(data, format, 1);
+        int[] values = parser.next();
+        if(values == null)
+            throw new PuzzleParseException("No puzzle found", parser.line, 1);
+
+        return values;
+    }
+
+    /**
+     * Parse every puzzle of the given buffer, passing each one to the given
+     * consumer as a new int[81] array. Only LINE files hold more than one
+     * puzzle.
+     *
+     * @param data
+     * @param format
+     * @param out
+     * @return the number of puzzles parsed
+     * @throws PuzzleParseException
+     */
+    public static long parseAll(ByteBuffer data, int format, Consumer<int[]> out)
+            throws PuzzleParseException {
+        return new PuzzleParser(data, format, 1).parseAll(out);
+    }
+
+    /**
+     * Parse the first puzzle of the given file, detecting its format.
+     *
+     * @param f
+     * @return int[81]
+     * @throws IOException
+     */
+    public static int[] parseFile(File f) throws IOException {
+        if(GzipPuzzleReader.isGzip(f)) {
+            try(InputStream in = new GZIPInputStream(new FileInputStream(f))) {
+                ByteBuffer data = ByteBuffer.wrap(in.readNBytes(1 << 16));
+                return parse(data, detectFormat(gzipName(f), data));
+            }
+        }
+
+        try(RandomAccessFile file = new RandomAccessFile(f, "r");
+                FileChannel channel = file.getChannel()) {
+            long size = Math.min(channel.size(), CHUNK_SIZE);
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            return parse(data, detectFormat(f.getName(), data));
+        }
+    }
+
+    /**
+     * Parse every puzzle of the given file, detecting its format, and pass
+     * each one to the given consumer as a new int[81] array.
+     *
+     * Large files are mapped in chunks that end on a line break, so files of
+     * any size can be parsed.
+     *
+     * @param f
+     * @param out
+     * @return the number of puzzles parsed
+     * @throws IOException
+     */
+    public static long parseFile(File f, Consumer<int[]> out) throws IOException {
+        // Compressed files of many puzzles are streamed, other compressed
+        // files hold a single puzzle.
+        if(GzipPuzzleReader.isGzip(f)) {
+            if(detectFormat(f) == LINE) return new GzipPuzzleReader(f).read(out);
+
+            out.accept(parseFile(f));
+            return 1;
+        }
+
+        try(RandomAccessFile file = new RandomAccessFile(f, "r");
+                FileChannel channel = file.getChannel()) {
+            long size = channel.size();
+            long position = 0;
+            long line = 1;
+            long count = 0;
+            int format = -1;
+
+            while(position < size) {
+                long length = Math.min(CHUNK_SIZE, size - position);
+                MappedByteBuffer data =
+                    channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                // End the chunk after its last line break.
+                if(position + length < size) {
+                    int end = (int) length - 1;
+                    while(end >= 0 && data.get(end) != '\n') end--;
+                    if(end < 0)
+                        throw new PuzzleParseException(
+                            "Line is longer than " + CHUNK_SIZE + " bytes", line, 1
+                        );
+                    length = end + 1;
+                    data.limit(end + 1);
+                }
+
+                if(format < 0) format = detectFormat(f.getName(), data);
+
+                // Only LINE files hold more than one puzzle.
+                PuzzleParser parser = new PuzzleParser(data, format, line);
+                if(format != LINE) return parser.parseAll(out);
+
+                count += parser.parseAll(out);
+                line = parser.line;
+                position += length;
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * Parse every puzzle of a buffer of whole lines of a LINE file, where the
+     * first line has the given number.
+     *
+     * @param data
+     * @param firstLine
+     * @param out
+     * @return the number of the line after the buffer
+     * @throws PuzzleParseException
+     */
+    static long parseLines(ByteBuffer data, long firstLine, Consumer<int[]> out)
+            throws PuzzleParseException {
+        PuzzleParser parser = new PuzzleParser(data, LINE, firstLine);
+        parser.parseAll(out);
+
+        return parser.line;
+    }
+
+    /**
+     * Convert an int[81] array of values into a new 9x9 grid of Cells.
+     *
+     * @param values
+     * @return Cell[][]
+     */
+    public static Cell[][] toGrid(int[] values) {
+        Cell[][] grid = new Cell[9][9];
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++)
+                grid[row][col] = new Cell(row, col, values[row * 9 + col]);
+        }
+
+        return grid;
+    }
+
+    /**
+     * Convert a 9x9 grid of Cells into an int[81] array of values.
+     *
+     * @param grid
+     * @return int[81]
+     */
+    public static int[] fromGrid(Cell[][] grid) {
+        int[] values = new int[81];
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++)
+                values[row * 9 + col] = grid[row][col].getValue();
+        }
+
+        return values;
+    }
+
+    /**
+     * Parse every remaining puzzle.
+     *
+     * @param out
+     * @return the number of puzzles parsed
+     * @throws PuzzleParseException
+     */
+    private long parseAll(Consumer<int[]> out) throws PuzzleParseException {
+        if(format != LINE) {
+            int[] values = next();
+            if(values == null) return 0;
+
+            out.accept(values);
+            return 1;
+        }
+
+        long count = 0;
+        for(int[] values = next(); values != null; values = next()) {
+            out.accept(values);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Parse the next puzzle.
+     *
+     * @return int[81], or null if there are no puzzles left
+     * @throws PuzzleParseException
+     */
+    private int[] next() throws PuzzleParseException {
+        return format == LINE ? nextLinePuzzle() : nextGridPuzzle();
+    }
+
+    /**
+     * Parse the next puzzle of a LINE file.
+     *
+     * @return int[81], or null if there are no puzzles left
+     * @throws PuzzleParseException
+     */
+    private int[] nextLinePuzzle() throws PuzzleParseException {
+        while(pos < limit) {
+            int end = lineEnd();
+            int start = pos;
+
+            if(isBlank(start, end) || data.get(start) == '#') {
+                nextLine(end);
+                continue;
+            }
+
+            int[] values = new int[81];
+            int i = start;
+            for(int cell = 0; cell < 81; cell++, i++) {
+                if(i >= end)
+                    throw error("Expected 81 cells but found " + cell, i - start);
+
+                int value = cellValue(data.get(i), format);
+                if(value < 0)
+                    throw error("Unexpected character '" + (char) data.get(i) + "'", i - start);
+
+                values[cell] = value;
+            }
+
+            // Anything after the cells must be separated from them.
+            if(i < end && cellValue(data.get(i), format) >= 0)
+                throw error("More than 81 cells", i - start);
+
+            nextLine(end);
+            return values;
+        }
+
+        return null;
+    }
+
+    /**
+     * Parse the next puzzle of a SDKU, SDK, or SS file, skipping blank lines,
+     * comments, section headers, and box separators.
+     *
+     * @return int[81], or null if there are no puzzles left
+     * @throws PuzzleParseException
+     */
+    private int[] nextGridPuzzle() throws PuzzleParseException {
+        int[] values = new int[81];
+        int row = 0;
+
+        while(row < 9) {
+            if(pos >= limit) {
+                if(row == 0) return null;
+                throw error("Expected 9 rows but found " + row, 0);
+            }
+
+            int end = lineEnd();
+            int start = pos;
+            if(isSkipped(start, end)) {
+                nextLine(end);
+                continue;
+            }
+
+            int col = 0;
+            for(int i = start; i < end; i++) {
+                byte b = data.get(i);
+                int value = cellValue(b, format);
+
+                if(value >= 0) {
+                    if(col == 9) throw error("More than 9 cells in a row", i - start);
+                    values[row * 9 + col++] = value;
+                } else if(!isIgnored(b))
+                    throw error("Unexpected character '" + (char) b + "'", i - start);
+            }
+
+            if(col < 9) throw error("Expected 9 cells but found " + col, end - start);
+
+            row++;
+            nextLine(end);
+        }
+
+        return values;
+    }
+
+    /**
+     * Get the value of a cell character, 0 for an empty cell, or -1 if the
+     * character is not a cell.
+     *
+     * @param b
+     * @param format
+     * @return int
+     */
+    static int cellValue(byte b, int format) {
+        if(b >= '1' && b <= '9') return b - '0';
+        if(b == '.' || b == '0') return 0;
+        if(format == SS && (b == 'X' || b == 'x')) return 0;
+
+        return -1;
+    }
+
+    /**
+     * Check if a character is allowed between the cells of a grid row.
+     *
+     * @param b
+     * @return boolean
+     */
+    private boolean isIgnored(byte b) {
+        if(b == ' ' || b == '\t') return true;
+        return format == SS && b == '|';
+    }
+
+    /**
+     * Check if a line of a grid format is not a row of cells.
+     *
+     * @param start
+     * @param end
+     * @return boolean
+     */
+    private boolean isSkipped(int start, int end) {
+        if(isBlank(start, end)) return true;
+
+        byte first = data.get(start);
+        if(first == '#') return true;
+        if(format == SDK && first == '[') return true;
+
+        // Simple Sudoku box separators, for eg. ---!---!--- or *-----*
+        if(format == SS && (first == '-' || first == '*' || first == '|')) {
+            for(int i = start; i < end; i++) {
+                byte b = data.get(i);
+                if(b != '-' && b != '!' && b != '+' && b != '|' && b != '*'
+                        && b != ' ')
+                    return false;
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Check if the given range only holds whitespace.
+     *
+     * @param start
+     * @param end
+     * @return boolean
+     */
+    private boolean isBlank(int start, int end) {
+        for(int i = start; i < end; i++) {
+            byte b = data.get(i);
+            if(b != ' ' && b != '\t') return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Find the end of the current line, excluding the line break.
+     *
+     * @return the index of the line break, or the limit
+     */
+    private int lineEnd() {
+        int i = pos;
+        while(i < limit && data.get(i) != '\n') i++;
+
+        if(i > pos && data.get(i - 1) == '\r') return i - 1;
+        return i;
+    }
+
+    /**
+     * Move to the start of the next line.
+     *
+     * @param end the end of the current line
+     */
+    private void nextLine(int end) {
+        pos = end;
+        if(pos < limit && data.get(pos) == '\r') pos++;
+        if(pos < limit && data.get(pos) == '\n') pos++;
+        line++;
+    }
+
+    /**
+     * Create a PuzzleParseException for the current line.
+     *
+     * @param message
+     * @param offset the offset of the problem from the start of the line
+     * @return PuzzleParseException
+     */
+    private PuzzleParseException error(String message, int offset) {
+        return new PuzzleParseException(message, line, offset + 1);
+    }
+}
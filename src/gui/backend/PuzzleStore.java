@@ -0,0 +1,369 @@
+package gui.backend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * A PuzzleStore keeps a large set of puzzles in memory outside of the Java
+ * heap, so batch jobs (rating, deduplication) over 100M+ puzzles run with a
+ * small, fixed heap and without long garbage collection pauses.
+ *
+ * Every puzzle is a fixed-size record in a direct ByteBuffer, holding:
+ *      - the puzzle, packed by the PuzzleCodec (41 bytes);
+ *      - its packed solution, if the store keeps solutions (41 bytes);
+ *      - a flags byte, where HAS_SOLUTION is set once a solution is stored;
+ *      - the number of clues (1 byte); and
+ *      - the grade, for eg. a difficulty rating (4 bytes).
+ *
+ * Records are stored in segments of 16 MB, which are allocated as the store
+ * grows, so records are never copied and at most one segment is partly
+ * unused. The direct memory the JVM may allocate is limited by
+ * -XX:MaxDirectMemorySize, which defaults to the maximum heap size, and
+ * should be raised for large stores.
+ *
+ * Puzzles are added from a single thread. Once they are added, any number of
+ * threads may read puzzles and update the metadata of different puzzles at
+ * the same time, for eg. with parallelForEach().
+ */
+public class PuzzleStore implements PuzzleCollection {
+    public static final int HAS_SOLUTION = 1;
+
+    // The size of a segment.
+    private static final int SEGMENT_SIZE = 1 << 24;
+
+    private final boolean solutions;
+    private final int recordSize;
+    private final int flagsOffset;
+    private final int cluesOffset;
+    private final int gradeOffset;
+    private final int segmentRecords;
+
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private volatile long count = 0;
+
+    /**
+     * Create a new, empty PuzzleStore.
+     *
+     * @param solutions true to keep a solution for every puzzle
+     */
+    public PuzzleStore(boolean solutions) {
+        this.solutions = solutions;
+
+        int offset = PuzzleCodec.PACKED_SIZE;
+        if(solutions) offset += PuzzleCodec.PACKED_SIZE;
+        flagsOffset = offset;
+        cluesOffset = offset + 1;
+
+        // Align the grade for faster access.
+        gradeOffset = (offset + 2 + 3) & ~3;
+        recordSize = gradeOffset + 4;
+
+        segmentRecords = SEGMENT_SIZE / recordSize;
+    }
+
+    /**
+     * Create a new PuzzleStore holding every puzzle of the given collection,
+     * and the solutions if the collection is a container with solutions.
+     *
+     * @param collection
+     * @return PuzzleStore
+     * @throws IOException
+     */
+    public static PuzzleStore load(PuzzleCollection collection) throws IOException {
+        PuzzleContainer container = collection instanceof PuzzleContainer
+            ? (PuzzleContainer) collection : null;
+        boolean solutions = container != null && container.hasSolutions();
+
+        PuzzleStore store = new PuzzleStore(solutions);
+        for(long id = 0; id < collection.size(); id++) {
+            long added = store.add(collection.getPuzzle(id));
+            if(solutions) store.setSolution(added, container.getSolution(id));
+        }
+
+        return store;
+    }
+
+    /**
+     * Add a puzzle to the store.
+     *
+     * @param puzzle int[81]
+     * @return the ID of the puzzle
+     */
+    public long add(int[] puzzle) {
+        if(!PuzzleCodec.isValid(puzzle))
+            throw new IllegalArgumentException("Invalid puzzle");
+
+        long id = count;
+        int segment = (int) (id / segmentRecords);
+        if(segment == segments.size())
+            segments.add(ByteBuffer.allocateDirect(segmentRecords * recordSize));
+
+        ByteBuffer buffer = segments.get(segment);
+        int offset = offset(id);
+        PuzzleCodec.pack(puzzle, buffer, offset);
+
+        int clues = 0;
+        for(int value : puzzle) if(value != 0) clues++;
+        buffer.put(offset + flagsOffset, (byte) 0);
+        buffer.put(offset + cluesOffset, (byte) clues);
+        buffer.putInt(offset + gradeOffset, 0);
+
+        count = id + 1;
+        return id;
+    }
+
+    /**
+     * Add a puzzle with its solution to the store.
+     *
+     * @param puzzle int[81]
+     * @param solution int[81]
+     * @return the ID of the puzzle
+     */
+    public long add(int[] puzzle, int[] solution) {
+        long id = add(puzzle);
+        setSolution(id, solution);
+        return id;
+    }
+
+    /**
+     * Get the number of puzzles in the store.
+     *
+     * @return long
+     */
+    @Override
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Check if the store keeps solutions.
+     *
+     * @return boolean
+     */
+    public boolean hasSolutions() {
+        return solutions;
+    }
+
+    /**
+     * Get the puzzle with the given ID.
+     *
+     * @param id
+     * @return int[81]
+     */
+    @Override
+    public int[] getPuzzle(long id) {
+        return getPuzzle(id, new int[81]);
+    }
+
+    /**
+     * Get the puzzle with the given ID into the given array, so iterating
+     * over the store does not allocate.
+     *
+     * @param id
+     * @param values int[81]
+     * @return values
+     */
+    public int[] getPuzzle(long id, int[] values) {
+        return PuzzleCodec.unpack(segment(id), offset(id), values);
+    }
+
+    /**
+     * Check if a solution is stored for the puzzle with the given ID.
+     *
+     * @param id
+     * @return boolean
+     */
+    public boolean hasSolution(long id) {
+        return (segment(id).get(offset(id) + flagsOffset) & HAS_SOLUTION) != 0;
+    }
+
+    /**
+     * Get the solution of the puzzle with the given ID.
+     *
+     * @param id
+     * @return int[81], or null if no solution is stored
+     */
+    public int[] getSolution(long id) {
+        if(!hasSolution(id)) return null;
+
+        return PuzzleCodec.unpack(segment(id), offset(id) + PuzzleCodec.PACKED_SIZE);
+    }
+
+    /**
+     * Store the solution of the puzzle with the given ID.
+     *
+     * @param id
+     * @param solution int[81]
+     */
+    public void setSolution(long id, int[] solution) {
+        if(!solutions)
+            throw new UnsupportedOperationException("The store does not keep solutions");
+        if(!PuzzleCodec.isValid(solution))
+            throw new IllegalArgumentException("Invalid solution");
+
+        ByteBuffer buffer = segment(id);
+        int offset = offset(id);
+        PuzzleCodec.pack(solution, buffer, offset + PuzzleCodec.PACKED_SIZE);
+        buffer.put(offset + flagsOffset, (byte) (buffer.get(offset + flagsOffset) | HAS_SOLUTION));
+    }
+
+    /**
+     * Get the number of clues of the puzzle with the given ID.
+     *
+     * @param id
+     * @return int
+     */
+    public int getClues(long id) {
+        return segment(id).get(offset(id) + cluesOffset);
+    }
+
+    /**
+     * Get the grade of the puzzle with the given ID, 0 if not graded.
+     *
+     * @param id
+     * @return int
+     */
+    public int getGrade(long id) {
+        return segment(id).getInt(offset(id) + gradeOffset);
+    }
+
+    /**
+     * Set the grade of the puzzle with the given ID.
+     *
+     * @param id
+     * @param grade
+     */
+    public void setGrade(long id, int grade) {
+        segment(id).putInt(offset(id) + gradeOffset, grade);
+    }
+
+    /**
+     * Pass every puzzle with an ID from start (inclusive) to end (exclusive)
+     * to the given visitor, in order. The same array is passed for every
+     * puzzle, and must not be kept by the visitor.
+     *
+     * @param start
+     * @param end
+     * @param visitor called with the puzzle and its ID
+     */
+    public void forEach(long start, long end, ObjLongConsumer<int[]> visitor) {
+        int[] values = new int[81];
+        for(long id = start; id < end; id++)
+            visitor.accept(getPuzzle(id, values), id);
+    }
+
+    /**
+     * Pass every puzzle to the given visitor, in order. The same array is
+     * passed for every puzzle, and must not be kept by the visitor.
+     *
+     * @param visitor called with the puzzle and its ID
+     */
+    public void forEach(ObjLongConsumer<int[]> visitor) {
+        forEach(0, count, visitor);
+    }
+
+    /**
+     * Split the IDs of the store into the given number of ranges of about
+     * the same size.
+     *
+     * @param parts
+     * @return long[parts + 1], where part i holds the IDs from element i
+     *         (inclusive) to element i + 1 (exclusive)
+     */
+    public long[] partition(int parts) {
+        long size = count;
+        long[] bounds = new long[parts + 1];
+        for(int i = 0; i <= parts; i++) bounds[i] = size * i / parts;
+
+        return bounds;
+    }
+
+    /**
+     * Pass every puzzle to the given visitor, splitting the store into one
+     * range of IDs per thread. Each thread passes its own array, which must
+     * not be kept by the visitor. The visitor may update the metadata of the
+     * puzzle it is given.
+     *
+     * @param threads
+     * @param visitor called with the puzzle and its ID
+     * @throws InterruptedException
+     */
+    public void parallelForEach(int threads, ObjLongConsumer<int[]> visitor)
+            throws InterruptedException {
+        long[] bounds = partition(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> parts = new ArrayList<>();
+            for(int i = 0; i < threads; i++) {
+                long start = bounds[i];
+                long end = bounds[i + 1];
+                parts.add(pool.submit(() -> forEach(start, end, visitor)));
+            }
+
+            for(Future<?> part : parts) part.get();
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Write every puzzle to the given container writer, with its solution
+     * and grade if the container holds them. If the store keeps solutions,
+     * the puzzles without one, for eg. unsolvable puzzles, are skipped.
+     *
+     * @param writer
+     * @throws IOException
+     */
+    public void writeTo(PuzzleContainer.Writer writer) throws IOException {
+        int[] values = new int[81];
+        for(long id = 0; id < count; id++) {
+            if(solutions && !hasSolution(id)) continue;
+
+            writer.add(getPuzzle(id, values), getSolution(id), getGrade(id));
+        }
+    }
+
+    /**
+     * Release the off-heap memory of the store. The memory is freed once the
+     * segments are garbage collected.
+     */
+    @Override
+    public void close() {
+        segments.clear();
+        count = 0;
+    }
+
+    /**
+     * Get the segment holding the record of the given ID.
+     *
+     * @param id
+     * @return ByteBuffer
+     */
+    private ByteBuffer segment(long id) {
+        if(id < 0 || id >= count)
+            throw new IndexOutOfBoundsException("Puzzle " + id + " of " + count);
+
+        return segments.get((int) (id / segmentRecords));
+    }
+
+    /**
+     * Get the offset of the record of the given ID in its segment.
+     *
+     * @param id
+     * @return int
+     */
+    private int offset(long id) {
+        return (int) (id % segmentRecords) * recordSize;
+    }
+}
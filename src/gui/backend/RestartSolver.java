@@ -0,0 +1,275 @@
+package gui.backend;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The RestartSolver is a randomized back-tracking search for hard puzzles.
+ *
+ * Back-tracking runtimes on hard puzzles are heavy-tailed: an unlucky early
+ * branching choice can make the search explore a huge, dead sub-tree, while
+ * another order would have found the solution almost immediately. To avoid
+ * getting stuck, the RestartSolver:
+ *      - always branches on the cell with the fewest candidates, breaking
+ *          ties between cells randomly;
+ *      - tries the candidate values of a cell in a random order; and
+ *      - gives up on a run after a node limit and restarts with a new random
+ *          order, where the limits follow the Luby sequence
+ *          (1, 1, 2, 1, 1, 2, 4, 1, 1, 2, ...) times a base limit.
+ *
+ * Since the Luby limits grow without bound, a run eventually completes, so
+ * the search still proves when a puzzle has no solution.
+ *
+ * The random choices are driven by a seed, so any run can be reproduced:
+ * every solve() restarts the random sequence from the seed, so the same
+ * instance repeats the same search every time it is solved.
+ */
+public class RestartSolver implements Solver {
+    // The default number of search nodes for a single Luby unit.
+    public static final long DEFAULT_BASE_LIMIT = 256;
+
+    // Results of a single search run.
+    private static final int SOLVED = 0;
+    private static final int EXHAUSTED = 1;
+    private static final int LIMIT = 2;
+
+    private final SearchState start;
+    private final long seed;
+    private final Random random;
+    private long baseLimit = DEFAULT_BASE_LIMIT;
+    private boolean restarts = true;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private volatile boolean lastCancelled = false;
+
+    // Statistics of the last solve.
+    private long nodes;
+    private int runs;
+
+    // Search fields for the current run.
+    private SearchState state;
+    private long runLimit;
+    private long runNodes;
+
+    /**
+     * Create a new RestartSolver for the given grid, using the given seed for
+     * every random choice the search makes.
+     *
+     * @param grid
+     * @param seed
+     */
+    public RestartSolver(Cell[][] grid, long seed) {
+        this.start = new SearchState(grid);
+        this.seed = seed;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Solve the puzzle.
+     *
+     * The given grid is never modified, the solution is returned as a new
+     * grid instead. A cancel() made before this solve started stops it as
+     * well, and is consumed when it returns.
+     *
+     * @return the solved grid, or null if the puzzle has no solution or the
+     *         solve was cancelled
+     */
+    @Override
+    public Cell[][] solve() {
+        try {
+            return restartSearch();
+        } finally {
+            lastCancelled = cancelled.getAndSet(false);
+        }
+    }
+
+    /**
+     * Search with restarts until a run completes or the solve is cancelled.
+     *
+     * @return the solved grid, or null
+     */
+    private Cell[][] restartSearch() {
+        random.setSeed(seed);
+        nodes = 0;
+        runs = 0;
+        if(!start.consistent) return null;
+
+        for(long i = 1; !cancelled.get(); i++) {
+            state = start.copy();
+            runLimit = restarts ? luby(i) * baseLimit : Long.MAX_VALUE;
+            runNodes = 0;
+            runs++;
+
+            int result = search();
+            nodes += runNodes;
+
+            if(result == SOLVED) return state.toGrid();
+            if(result == EXHAUSTED) return null;
+        }
+
+        return null;
+    }
+
+    /**
+     * Cancel the running solve, or the next one if none is running. The
+     * solve returns null as soon as it notices the cancellation.
+     */
+    @Override
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    /**
+     * Check if the last solve that returned was cancelled.
+     *
+     * @return boolean
+     */
+    @Override
+    public boolean isCancelled() {
+        return lastCancelled;
+    }
+
+    /**
+     * Get the seed driving the random choices of the search.
+     *
+     * @return long
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Set the number of search nodes in a single Luby unit. The n-th run of
+     * a solve is allowed luby(n) * baseLimit nodes before it restarts.
+     *
+     * @param baseLimit
+     */
+    public void setBaseLimit(long baseLimit) {
+        this.baseLimit = Math.max(1, baseLimit);
+    }
+
+    /**
+     * Enable or disable restarts. Without restarts the solver is a plain
+     * randomized back-tracking search.
+     *
+     * @param restarts
+     */
+    public void setRestarts(boolean restarts) {
+        this.restarts = restarts;
+    }
+
+    /**
+     * Get the number of search nodes visited by the last solve, over all of
+     * its runs.
+     *
+     * @return long
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Get the number of runs the last solve needed, ie. the number of
+     * restarts plus one.
+     *
+     * @return int
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+    /**
+     * Get the i-th value of the Luby sequence, starting at i = 1.
+     *
+     * @param i
+     * @return long
+     */
+    static long luby(long i) {
+        int k = 1;
+        while((1L << k) - 1 < i) k++;
+
+        if(i == (1L << k) - 1) return 1L << (k - 1);
+        return luby(i - (1L << (k - 1)) + 1);
+    }
+
+    /**
+     * Search the current state for a solution, branching on the cell with
+     * the fewest candidates.
+     *
+     * @return SOLVED, EXHAUSTED, or LIMIT
+     */
+    private int search() {
+        if(state.empty == 0) return SOLVED;
+        if(cancelled.get() || ++runNodes > runLimit) return LIMIT;
+
+        int index = pickCell();
+        int candidates = state.candidates(index);
+        if(candidates == 0) return EXHAUSTED;
+
+        // Try the candidate values in a random order.
+        int[] order = shuffle(candidates);
+        boolean limited = false;
+        for(int value : order) {
+            state.place(index, value);
+            int result = search();
+            if(result == SOLVED) return SOLVED;
+
+            state.remove(index);
+            if(result == LIMIT) {
+                limited = true;
+                break;
+            }
+        }
+
+        return limited ? LIMIT : EXHAUSTED;
+    }
+
+    /**
+     * Pick the empty cell with the fewest candidates, breaking ties randomly.
+     *
+     * @return the index of the cell
+     */
+    private int pickCell() {
+        int best = -1;
+        int bestCount = 10;
+        int ties = 0;
+
+        for(int i = 0; i < 81; i++) {
+            if(state.values[i] != 0) continue;
+
+            int count = Integer.bitCount(state.candidates(i));
+            if(count < bestCount) {
+                best = i;
+                bestCount = count;
+                ties = 1;
+                if(count == 0) break;
+            } else if(count == bestCount && random.nextInt(++ties) == 0)
+                best = i;
+        }
+
+        return best;
+    }
+
+    /**
+     * Given a bitmask of candidates, return the candidate values in a random
+     * order.
+     *
+     * @param candidates
+     * @return int[]
+     */
+    private int[] shuffle(int candidates) {
+        int[] order = new int[Integer.bitCount(candidates)];
+        for(int i = 0; candidates != 0; i++) {
+            order[i] = Integer.numberOfTrailingZeros(candidates);
+            candidates &= candidates - 1;
+        }
+
+        for(int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+
+        return order;
+    }
+}
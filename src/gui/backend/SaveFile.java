@@ -0,0 +1,437 @@
+package gui.backend;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * A SaveFile stores a game in progress: the initial values of the puzzle,
+ * and the values and notes the user entered.
+ *
+ * A save file game.sdks holds a checkpoint of the whole grid, and is paired
+ * with an append-only journal game.sdks.journal of the moves made since. A
+ * move only appends 8 bytes to the journal, so saving after every change is
+ * cheap. Once the journal holds COMPACT_AFTER moves, it is compacted into a
+ * new checkpoint.
+ *
+ * The checkpoint file holds:
+ *      - bytes 0-3: the magic number "SDKS";
+ *      - bytes 4-5: the format version, currently 1;
+ *      - bytes 6-7: reserved, always 0;
+ *      - bytes 8-15: the generation, which starts at a random number for a
+ *        new save file and increases with every checkpoint;
+ *      - bytes 16-339: every cell as an int, packed like a GridSnapshot; and
+ *      - bytes 340-343: the CRC32 of bytes 0-339.
+ *
+ * The journal starts with the magic number "SDKJ", the version, and the
+ * generation of the checkpoint it belongs to (16 bytes), followed by one
+ * 8 byte record per move: the index of the cell, a reserved byte, the packed
+ * cell as a short, and a checksum of the record, its position, and the
+ * generation.
+ *
+ * A checkpoint is written to a temporary file which then atomically replaces
+ * the save file, and only then is the journal reset. A crash at any point
+ * leaves either the old checkpoint with its journal, or the new checkpoint
+ * with a journal of an older generation, which is ignored. A new save file
+ * starts at a random generation, so the journal left by a crash of an older
+ * game saved to the same file is ignored as well. A move torn by a crash
+ * fails its checksum, and the journal is replayed up to the move before it.
+ *
+ * Checkpoints are forced to disk, moves are written to the operating system
+ * but not forced, so a move survives a crash of the app but may be lost if
+ * the machine loses power.
+ */
+public class SaveFile implements Closeable {
+    public static final String EXTENSION = ".sdks";
+    public static final int MAGIC = 0x53444B53;
+    public static final int JOURNAL_MAGIC = 0x53444B4A;
+    public static final int VERSION = 1;
+
+    // The number of moves in the journal before it is compacted.
+    public static final int COMPACT_AFTER = 1024;
+
+    private static final int CHECKPOINT_SIZE = 16 + 81 * 4 + 4;
+    private static final int JOURNAL_HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 8;
+
+    private final File file;
+    private final File journalFile;
+    private final int[] cells = new int[81];
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private FileChannel journal;
+    private long generation = 0;
+    private int moves = 0;
+
+    /**
+     * Create a new SaveFile for the given file, without reading or writing
+     * it.
+     *
+     * @param f
+     */
+    private SaveFile(File f) {
+        this.file = f;
+        this.journalFile = new File(f.getPath() + ".journal");
+    }
+
+    /**
+     * Check if the given file is a save file, from its name.
+     *
+     * @param f
+     * @return boolean
+     */
+    public static boolean isSaveFile(File f) {
+        return f.getName().toLowerCase().endsWith(EXTENSION);
+    }
+
+    /**
+     * Create a new save file for the given grid, replacing any existing file.
+     *
+     * @param f
+     * @param grid
+     * @return SaveFile
+     * @throws IOException
+     */
+    public static SaveFile create(File f, Cell[][] grid) throws IOException {
+        SaveFile save = new SaveFile(f);
+
+        // Start at a random generation, so a journal left from an older game
+        // saved to the same file never matches the new checkpoint.
+        save.generation = ThreadLocalRandom.current().nextLong();
+        save.checkpoint(grid);
+        return save;
+    }
+
+    /**
+     * Open an existing save file, replaying the moves of its journal, to
+     * keep saving to it.
+     *
+     * @param f
+     * @return SaveFile
+     * @throws IOException if the file cannot be read or is not a save file
+     */
+    public static SaveFile open(File f) throws IOException {
+        SaveFile save = new SaveFile(f);
+        save.readCheckpoint();
+        save.openJournal();
+        return save;
+    }
+
+    /**
+     * Read the grid of the given save file, with the moves of its journal,
+     * without writing to either file.
+     *
+     * @param f
+     * @return Cell[][]
+     * @throws IOException if the file cannot be read or is not a save file
+     */
+    public static Cell[][] load(File f) throws IOException {
+        SaveFile save = new SaveFile(f);
+        save.readCheckpoint();
+        if(save.journalFile.isFile()) {
+            try(FileChannel channel = FileChannel.open(save.journalFile.toPath())) {
+                save.replay(channel);
+            }
+        }
+
+        return save.toCells();
+    }
+
+    /**
+     * Get the save file.
+     *
+     * @return File
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the number of moves in the journal since the last checkpoint.
+     *
+     * @return int
+     */
+    public synchronized int getJournalLength() {
+        return moves;
+    }
+
+    /**
+     * Create a new 9x9 grid of Cells with the saved values and notes.
+     *
+     * @return Cell[][]
+     */
+    public synchronized Cell[][] toCells() {
+        int[][] rows = new int[9][9];
+        for(int i = 0; i < 81; i++) rows[i / 9][i % 9] = cells[i];
+
+        return new GridSnapshot(rows, 0).toCells();
+    }
+
+    /**
+     * Save a change of the given Cell by appending it to the journal.
+     * Nothing is written if the saved cell is unchanged.
+     *
+     * @param cell
+     * @throws IOException
+     */
+    public void append(Cell cell) throws IOException {
+        append(cell.getRow() * 9 + cell.getCol(), GridSnapshot.pack(cell));
+    }
+
+    /**
+     * Save every cell of the given snapshot that differs from the saved grid
+     * by appending it to the journal.
+     *
+     * @param snapshot
+     * @throws IOException
+     */
+    public synchronized void append(GridSnapshot snapshot) throws IOException {
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++)
+                append(row * 9 + col, snapshot.getPacked(row, col));
+        }
+    }
+
+    /**
+     * Save a change of a cell by appending it to the journal, compacting the
+     * journal once it is long enough. Nothing is written if the saved cell is
+     * unchanged.
+     *
+     * @param index row * 9 + col
+     * @param packed the cell, packed like a GridSnapshot
+     * @throws IOException
+     */
+    public synchronized void append(int index, int packed) throws IOException {
+        if(journal == null) throw new IOException(file.getName() + " is closed");
+        if(cells[index] == packed) return;
+        cells[index] = packed;
+
+        if(moves + 1 >= COMPACT_AFTER) {
+            checkpoint();
+            return;
+        }
+
+        record.clear();
+        record.put((byte) index);
+        record.put((byte) 0);
+        record.putShort((short) packed);
+        record.putInt(checksum(record.getInt(0), moves));
+        record.flip();
+
+        long position = JOURNAL_HEADER_SIZE + (long) moves * RECORD_SIZE;
+        while(record.hasRemaining())
+            journal.write(record, position + record.position());
+        moves++;
+    }
+
+    /**
+     * Save the whole grid as a new checkpoint.
+     *
+     * @param grid
+     * @throws IOException
+     */
+    public synchronized void checkpoint(Cell[][] grid) throws IOException {
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++)
+                cells[row * 9 + col] = GridSnapshot.pack(grid[row][col]);
+        }
+        checkpoint();
+    }
+
+    /**
+     * Save the whole grid of the given snapshot as a new checkpoint.
+     *
+     * @param snapshot
+     * @throws IOException
+     */
+    public synchronized void checkpoint(GridSnapshot snapshot) throws IOException {
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++)
+                cells[row * 9 + col] = snapshot.getPacked(row, col);
+        }
+        checkpoint();
+    }
+
+    /**
+     * Write the saved grid as a new checkpoint, replacing the save file
+     * atomically, and start a new, empty journal.
+     *
+     * @throws IOException
+     */
+    public synchronized void checkpoint() throws IOException {
+        long next = generation + 1;
+
+        ByteBuffer buffer = ByteBuffer.allocate(CHECKPOINT_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) 0);
+        buffer.putLong(next);
+        for(int cell : cells) buffer.putInt(cell);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try(FileChannel out = FileChannel.open(
+                tmp.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(buffer.hasRemaining()) out.write(buffer);
+            out.force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        generation = next;
+        resetJournal();
+    }
+
+    /**
+     * Close the journal. The saved moves stay in the journal until the next
+     * checkpoint.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(journal != null) journal.close();
+        journal = null;
+    }
+
+    /**
+     * Read the checkpoint of the save file.
+     *
+     * @throws IOException if the file is not a valid save file
+     */
+    private void readCheckpoint() throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if(bytes.length != CHECKPOINT_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException(file.getName() + " is not a save file");
+        if(buffer.getShort(4) != VERSION)
+            throw new IOException("Unsupported save file version " + buffer.getShort(4));
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, CHECKPOINT_SIZE - 4);
+        if(buffer.getInt(CHECKPOINT_SIZE - 4) != (int) crc.getValue())
+            throw new IOException(file.getName() + " is corrupt");
+
+        generation = buffer.getLong(8);
+        for(int i = 0; i < 81; i++) cells[i] = buffer.getInt(16 + i * 4);
+    }
+
+    /**
+     * Open the journal to append further moves after its last valid move,
+     * applying its moves if it belongs to the checkpoint, or starting a new
+     * journal otherwise.
+     *
+     * @throws IOException
+     */
+    private void openJournal() throws IOException {
+        if(!journalFile.isFile()) {
+            resetJournal();
+            return;
+        }
+
+        journal = FileChannel.open(
+            journalFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+
+        int valid = replay(journal);
+        if(valid < 0) {
+            resetJournal();
+            return;
+        }
+
+        // Drop a move torn by a crash, so new moves follow the last valid one.
+        moves = valid;
+        journal.truncate(JOURNAL_HEADER_SIZE + (long) moves * RECORD_SIZE);
+    }
+
+    /**
+     * Apply the valid moves of the given journal to the saved grid, up to the
+     * first move that fails its checksum.
+     *
+     * @param channel
+     * @return the number of valid moves, or -1 if the journal does not belong
+     *         to the checkpoint
+     * @throws IOException
+     */
+    private int replay(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        while(header.hasRemaining() && channel.read(header, header.position()) >= 0);
+        if(header.hasRemaining() || header.getInt(0) != JOURNAL_MAGIC
+                || header.getShort(4) != VERSION || header.getLong(8) != generation)
+            return -1;
+
+        int valid = 0;
+        ByteBuffer move = ByteBuffer.allocate(RECORD_SIZE);
+        while(true) {
+            move.clear();
+            long position = JOURNAL_HEADER_SIZE + (long) valid * RECORD_SIZE;
+            while(move.hasRemaining() && channel.read(move, position + move.position()) >= 0);
+            if(move.hasRemaining()) break;
+
+            int index = move.get(0);
+            if(move.getInt(4) != checksum(move.getInt(0), valid) || index < 0 || index >= 81)
+                break;
+
+            cells[index] = (cells[index] & GridSnapshot.GIVEN) | (move.getShort(2) & 0x7FFF);
+            valid++;
+        }
+
+        return valid;
+    }
+
+    /**
+     * Start a new, empty journal for the current generation.
+     *
+     * @throws IOException
+     */
+    private void resetJournal() throws IOException {
+        if(journal == null) {
+            journal = FileChannel.open(
+                journalFile.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+            );
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        header.putInt(JOURNAL_MAGIC);
+        header.putShort((short) VERSION);
+        header.putShort((short) 0);
+        header.putLong(generation);
+        header.flip();
+
+        journal.truncate(0);
+        while(header.hasRemaining()) journal.write(header, header.position());
+        journal.force(true);
+        moves = 0;
+    }
+
+    /**
+     * Get the checksum of a journal record.
+     *
+     * @param data the first 4 bytes of the record
+     * @param position the number of moves before the record
+     * @return int
+     */
+    private int checksum(int data, int position) {
+        long x = (generation * 0x9E3779B97F4A7C15L) ^ ((long) position << 32) ^ (data & 0xFFFFFFFFL);
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        x *= 0xC4CEB9FE1A85EC53L;
+        x ^= x >>> 33;
+        return (int) x;
+    }
+}
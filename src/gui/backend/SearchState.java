@@ -0,0 +1,194 @@
+package gui.backend;
+
+/**
+ * A compact representation of a 9x9 Sudoku grid used by the search engines.
+ *
+ * Every cell is stored by its index (row * 9 + col) in a flat array, and the
+ * digits already used by each row, column, and box are kept as bitmasks where
+ * bit n is set if the digit n is used. This makes checking the candidates of
+ * a cell a couple of bitwise operations instead of scanning the grid, which
+ * is what the search engines do millions of times per solve.
+ */
+class SearchState {
+    // Bitmask with the bits for the digits 1-9 set.
+    static final int ALL = 0x3FE;
+
+    // The box each cell index belongs to.
+    static final int[] BOX = new int[81];
+
+    // The cell indices of the 27 units: 9 rows, 9 columns, and 9 boxes.
+    static final int[][] UNITS = new int[27][9];
+
+    static {
+        for(int i = 0; i < 81; i++)
+            BOX[i] = (i / 27) * 3 + (i % 9) / 3;
+
+        for(int unit = 0; unit < 9; unit++) {
+            for(int n = 0; n < 9; n++) {
+                UNITS[unit][n] = unit * 9 + n;
+                UNITS[unit + 9][n] = n * 9 + unit;
+                UNITS[unit + 18][n] = ((unit / 3) * 3 + n / 3) * 9 + (unit % 3) * 3 + n % 3;
+            }
+        }
+    }
+
+    final int[] values = new int[81];
+    final int[] rows = new int[9];
+    final int[] cols = new int[9];
+    final int[] boxes = new int[9];
+
+    // The number of cells that are still empty.
+    int empty = 81;
+
+    // False if the values the state was created with break a Sudoku rule.
+    boolean consistent = true;
+
+    /**
+     * Create an empty SearchState.
+     */
+    SearchState() {}
+
+    /**
+     * Create a new SearchState from the values of the given grid.
+     *
+     * @param grid
+     */
+    SearchState(Cell[][] grid) {
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++) {
+                int value = grid[row][col].getValue();
+                if(value < 1 || value > 9) continue;
+
+                int index = row * 9 + col;
+                if((candidates(index) & (1 << value)) == 0)
+                    consistent = false;
+
+                place(index, value);
+            }
+        }
+    }
+
+    /**
+     * Create a copy of this SearchState.
+     *
+     * @return SearchState
+     */
+    SearchState copy() {
+        SearchState copy = new SearchState();
+        System.arraycopy(values, 0, copy.values, 0, 81);
+        System.arraycopy(rows, 0, copy.rows, 0, 9);
+        System.arraycopy(cols, 0, copy.cols, 0, 9);
+        System.arraycopy(boxes, 0, copy.boxes, 0, 9);
+        copy.empty = empty;
+        copy.consistent = consistent;
+
+        return copy;
+    }
+
+    /**
+     * Get the bitmask of digits that can still be placed in the given cell.
+     *
+     * @param index
+     * @return int
+     */
+    int candidates(int index) {
+        return ALL & ~(rows[index / 9] | cols[index % 9] | boxes[BOX[index]]);
+    }
+
+    /**
+     * Place the given value in the given cell.
+     *
+     * @param index
+     * @param value
+     */
+    void place(int index, int value) {
+        int bit = 1 << value;
+        values[index] = value;
+        rows[index / 9] |= bit;
+        cols[index % 9] |= bit;
+        boxes[BOX[index]] |= bit;
+        empty--;
+    }
+
+    /**
+     * Remove the value from the given cell.
+     *
+     * @param index
+     */
+    void remove(int index) {
+        int bit = ~(1 << values[index]);
+        values[index] = 0;
+        rows[index / 9] &= bit;
+        cols[index % 9] &= bit;
+        boxes[BOX[index]] &= bit;
+        empty++;
+    }
+
+    /**
+     * Fill in every naked single (a cell with one candidate) and hidden
+     * single (a digit with one possible cell in a unit) until none are left.
+     *
+     * @return false if a cell or unit is left without any candidates
+     */
+    boolean propagate() {
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+
+            // Naked singles.
+            for(int i = 0; i < 81; i++) {
+                if(values[i] != 0) continue;
+
+                int candidates = candidates(i);
+                if(candidates == 0) return false;
+                if((candidates & (candidates - 1)) == 0) {
+                    place(i, Integer.numberOfTrailingZeros(candidates));
+                    changed = true;
+                }
+            }
+
+            // Hidden singles.
+            for(int[] unit : UNITS) {
+                int used = 0;
+                for(int i : unit) used |= 1 << values[i];
+
+                for(int value = 1; value <= 9; value++) {
+                    if((used & (1 << value)) != 0) continue;
+
+                    int target = -1;
+                    int count = 0;
+                    for(int i : unit) {
+                        if(values[i] == 0 && (candidates(i) & (1 << value)) != 0) {
+                            target = i;
+                            count++;
+                        }
+                    }
+
+                    if(count == 0) return false;
+                    if(count == 1) {
+                        place(target, value);
+                        used |= 1 << value;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Convert the state back into a new 9x9 grid of Cells.
+     *
+     * @return Cell[][]
+     */
+    Cell[][] toGrid() {
+        Cell[][] grid = new Cell[9][9];
+        for(int row = 0; row < 9; row++) {
+            for(int col = 0; col < 9; col++)
+                grid[row][col] = new Cell(row, col, values[row * 9 + col]);
+        }
+
+        return grid;
+    }
+}
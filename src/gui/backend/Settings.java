@@ -2,7 +2,19 @@ package gui.backend;
 
 import java.io.File;
 import java.io.IOException;
-
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import java.awt.EventQueue;
 import java.awt.GraphicsEnvironment;
 import java.awt.Dimension;
 import java.awt.Font;
@@ -30,8 +42,24 @@ import java.awt.FontFormatException;
  *      - Auto-fill notes with possible values;
  *      - Auto-check user-entered values with the correct values;
  *      - Auto-save and auto-save frequency;
+ *
+ * The settings file is read once on startup. Setters do not write the file
+ * right away: the changes made within WRITE_DELAY are batched into a single
+ * write on a background thread, which replaces the file atomically, and
+ * nothing is written if the settings did not change. Pending changes are
+ * written when the app exits.
  */
 public class Settings {
+    // The version of the settings file format.
+    private static final int VERSION = 1;
+
+    // The time changes are batched for before the settings file is written,
+    // in milliseconds.
+    private static final long WRITE_DELAY = 500;
+
+    // The font used until a custom font is loaded, or if there is none.
+    private static final String FALLBACK_FONT = "Arial";
+
     private final String os;
 
     // The directory where the settings file is located.
@@ -43,8 +71,12 @@ public class Settings {
     // The properties for creating a new .sdku file.
     private int newFileProperties;
 
-    // The font to be used throughout the application.
+    // The font to be used throughout the application, the font file it was
+    // loaded from if any, and the listeners told when a font file is loaded.
     private Font font;
+    private String fontFile;
+    private final List<Consumer<Font>> fontListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean fontLoaded = false;
 
     // The default dimension of the application window.
     private Dimension dimension;
@@ -58,11 +90,15 @@ public class Settings {
     // Cell GUI Start Mode
     private boolean cellGUIStartMode;
 
+    // Paint the board with a single component instead of a panel per cell.
+    private boolean paintedBoard;
+
     // Default open state for the application.
     private int defaultOpenState;
 
-    // Theme object storing the colors for the GUI components.
+    // Theme object storing the colors for the GUI components, and its file.
     private Theme theme;
+    private String themeFile;
 
     // Auto-fill notes
     private boolean autoFillNotes;
@@ -76,6 +112,17 @@ public class Settings {
     // Auto-save frequency
     private int autoSaveFrequency;
 
+    // The settings file, the JSON waiting to be written to it and the JSON
+    // it holds, numbered so an older write never replaces a newer one.
+    private final File settingsFile;
+    private final Object writeLock = new Object();
+    private String pendingJson;
+    private long pendingNumber = 0;
+    private String writtenJson;
+    private long writtenNumber = 0;
+    private ScheduledExecutorService writer;
+    private boolean writeScheduled = false;
+
     /**
      * Create a new Settings object, initializing the default settings
      * or reading in the settings from settings file if it exists.
@@ -97,6 +144,7 @@ public class Settings {
                             "/.config/sudoku/";
 
         File dir = new File(appDirectory);
+        settingsFile = new File(appDirectory, "settings.json");
         
         // If the app directory does not exist, create it and populate a
         // settings.json file with the default settings.
@@ -106,6 +154,8 @@ public class Settings {
             updateSettingsFile();
 
         } else readSettings();
+
+        loadFont();
     }
 
     /**
@@ -121,21 +171,20 @@ public class Settings {
         if(!dir.exists() || !dir.isDirectory())
             dir.mkdirs();
 
-        // Load the font from the system directory.
-        if(loadFont("HackNerdFont-Regular") == 0)
-            font = new Font("Hack Nerd Font", Font.PLAIN, 16);
-
-        // If the font does not exist, use Arial as the default font.
-        else 
-            font = new Font("Arial", Font.PLAIN, 16);
+        // Use Arial until the default font is loaded in the background, or
+        // if the default font does not exist.
+        font = new Font(FALLBACK_FONT, Font.PLAIN, 16);
+        fontFile = null;
 
         // Set other default settings.
         newFileProperties = 0;
         dimension = new Dimension(600, 800);
         resizable = false;
         cellGUIStartMode = true;
+        paintedBoard = true;
         defaultOpenState = 0;
-        theme = new Theme(new File(appDirectory + "default.theme"));
+        themeFile = appDirectory + "default.theme";
+        theme = new Theme(new File(themeFile));
         autoFillNotes = false;
         autoCheckValues = true;
         autoSave = false;
@@ -147,66 +196,275 @@ public class Settings {
     }
 
     /**
-     * Open and write the settings to the settings file.
+     * Write the settings to the settings file.
      * 
-     * This method is called whenever a setting is updated.
+     * This method is called whenever a setting is updated. The settings are
+     * written on a background thread after WRITE_DELAY, together with any
+     * other change made until then, and only if they changed.
      */
     private void updateSettingsFile() {
-        // TODO: Write the settings to the settings file.
+        String json = Json.write(toJson());
+
+        synchronized(writeLock) {
+            if(json.equals(writtenJson) && pendingJson == null) return;
+
+            pendingJson = json;
+            pendingNumber++;
+            if(writeScheduled) return;
+
+            if(writer == null) {
+                writer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "SettingsWriter");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+                // Write the last changes when the app exits.
+                Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+            }
+
+            writer.schedule(this::flush, WRITE_DELAY, TimeUnit.MILLISECONDS);
+            writeScheduled = true;
+        }
+    }
+
+    /**
+     * Write any pending changes to the settings file now. The file is
+     * written to a temporary file first, which then replaces the settings
+     * file atomically, so the settings file is never left half-written.
+     */
+    public void flush() {
+        String json;
+        long number;
+        synchronized(writeLock) {
+            writeScheduled = false;
+            json = pendingJson;
+            number = pendingNumber;
+            pendingJson = null;
+            if(json == null || json.equals(writtenJson)) return;
+        }
+
+        // Writes never overlap, and a write never replaces a newer one.
+        synchronized(settingsFile) {
+            if(number <= writtenNumber) return;
+
+            File tmp = new File(appDirectory, "settings.json.tmp");
+            try {
+                Files.write(tmp.toPath(), json.getBytes(StandardCharsets.UTF_8));
+                Files.move(tmp.toPath(), settingsFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch(IOException e) {
+                System.out.println("Unable to write " + settingsFile + ": " + e.getMessage());
+                return;
+            }
+            writtenNumber = number;
+        }
+
+        synchronized(writeLock) {
+            writtenJson = json;
+        }
     }
 
     /**
      * Read the settings from the settings file.
      * 
-     * If the settings file does not exist, the default settings will be used
-     * to populate the Settings file.
+     * If the settings file does not exist or is malformed, the default
+     * settings will be used to populate the Settings file. Settings missing
+     * from the file keep their default values.
      */
-     private void readSettings() {
-        File settingsFile = new File(appDirectory + "/settings.json");
-        if (!settingsFile.exists() && !settingsFile.isDirectory()) {
+    private void readSettings() {
+        if(!settingsFile.isFile()) {
+            defaultSettings();
+            return;
+        }
+
+        Map<String, Object> json;
+        try {
+            json = Json.parseObject(new String(
+                Files.readAllBytes(settingsFile.toPath()), StandardCharsets.UTF_8
+            ));
+        } catch(IOException e) {
+            System.out.println("Unable to read " + settingsFile + ": " + e.getMessage());
             defaultSettings();
             return;
         }
 
-        // TODO: Read the settings from the settings file.
-     }
+        defaultDirectory = Json.getString(json, "defaultDirectory", appDirectory + "puzzles");
+        newFileProperties = Json.getInt(json, "newFileProperties", 0);
+
+        // The font is only created here, it is registered when it is loaded
+        // from a font file.
+        Map<String, Object> fontJson = Json.getObject(json, "font");
+        font = new Font(
+            Json.getString(fontJson, "name", "Arial"),
+            Json.getInt(fontJson, "style", Font.PLAIN),
+            Json.getInt(fontJson, "size", 16)
+        );
+        fontFile = Json.getString(fontJson, "file", null);
+
+        Map<String, Object> dimensionJson = Json.getObject(json, "dimension");
+        dimension = new Dimension(
+            Json.getInt(dimensionJson, "width", 600),
+            Json.getInt(dimensionJson, "height", 800)
+        );
+
+        resizable = Json.getBoolean(json, "resizable", false);
+        cellGUIStartMode = Json.getBoolean(json, "cellGUIStartMode", true);
+        paintedBoard = Json.getBoolean(json, "paintedBoard", true);
+        defaultOpenState = Json.getInt(json, "defaultOpenState", 0);
+        themeFile = Json.getString(json, "theme", appDirectory + "default.theme");
+        theme = new Theme(new File(themeFile));
+        autoFillNotes = Json.getBoolean(json, "autoFillNotes", false);
+        autoCheckValues = Json.getBoolean(json, "autoCheckValues", true);
+        autoSave = Json.getBoolean(json, "autoSave", false);
+        autoSaveFrequency = Json.getInt(json, "autoSaveFrequency", 0);
+        setCellDimensions();
+
+        // The file only needs to be written once a setting changes.
+        synchronized(writeLock) {
+            writtenJson = Json.write(toJson());
+        }
+    }
+
+    /**
+     * Get the settings as a JSON object, as written to the settings file.
+     *
+     * @return Map<String, Object>
+     */
+    private Map<String, Object> toJson() {
+        Map<String, Object> fontJson = new LinkedHashMap<>();
+        fontJson.put("name", font.getName());
+        fontJson.put("style", font.getStyle());
+        fontJson.put("size", font.getSize());
+        if(fontFile != null) fontJson.put("file", fontFile);
+
+        Map<String, Object> dimensionJson = new LinkedHashMap<>();
+        dimensionJson.put("width", dimension.width);
+        dimensionJson.put("height", dimension.height);
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("version", VERSION);
+        json.put("defaultDirectory", defaultDirectory);
+        json.put("newFileProperties", newFileProperties);
+        json.put("font", fontJson);
+        json.put("dimension", dimensionJson);
+        json.put("resizable", resizable);
+        json.put("cellGUIStartMode", cellGUIStartMode);
+        json.put("paintedBoard", paintedBoard);
+        json.put("defaultOpenState", defaultOpenState);
+        json.put("theme", themeFile);
+        json.put("autoFillNotes", autoFillNotes);
+        json.put("autoCheckValues", autoCheckValues);
+        json.put("autoSave", autoSave);
+        json.put("autoSaveFrequency", autoSaveFrequency);
+        return json;
+    }
+
+    /**
+     * Load the font file of the font in the background, so the app starts
+     * with the font as created from its name and swaps in the loaded font
+     * once it is registered, see addFontListener().
+     * 
+     * The font file found on the first launch is kept in the settings file,
+     * so later launches load it without searching for it. If the font is the
+     * fallback font, the default font file is searched for.
+     */
+    private void loadFont() {
+        File cached = fontFile == null ? null : new File(fontFile);
+        boolean search = font.getName().equals(FALLBACK_FONT);
+        if((cached == null || !cached.isFile()) && !search) return;
+
+        int style = font.getStyle();
+        float size = font.getSize2D();
+        Thread loader = new Thread(() -> {
+            File file = cached != null && cached.isFile() ? cached : findFontFile();
+            if(file == null) return;
+
+            // Register the font with the GraphicsEnvironment.
+            try {
+                Font loaded = Font.createFont(Font.TRUETYPE_FONT, file);
+                GraphicsEnvironment.getLocalGraphicsEnvironment().registerFont(loaded);
+
+                Font derived = loaded.deriveFont(style, size);
+                EventQueue.invokeLater(() -> fontLoaded(derived, file));
+            } catch(IOException | FontFormatException e) {
+                System.out.println("Unable to load the font " + file + ": " + e.getMessage());
+            }
+        }, "FontLoader");
+
+        loader.setDaemon(true);
+        loader.start();
+    }
 
     /**
-     * Load the font from the resources folder in the user's system directory.
+     * Find the font file of the default font in the user's system directory.
      * 
-     * @return int 0 if successful, 1 if the file does not exist.
+     * @return File, or null if the font file does not exist
      */
-    private int loadFont(String fontName) {
-        // Load the font from the system directory.
-        String fontFilepath;
+    private File findFontFile() {
+        String home = System.getProperty("user.home");
+        String[] candidates;
         if(os.startsWith("windows"))
-            fontFilepath = System.getProperty("user.home") + 
-                            "\\AppData\\Local\\Microsoft\\Windows\\Fonts\\" +
-                            fontName + ".ttf";
+            candidates = new String[] {
+                home + "\\AppData\\Local\\Microsoft\\Windows\\Fonts\\HackNerdFont-Regular.ttf"
+            };
         else if(os.startsWith("mac"))
-            fontFilepath = "/Library/Fonts/" + fontName + ".ttf";
-        else {
-            fontName = "HackNerdFontMono-Regular";
-            fontFilepath = "/usr/share/fonts/TTF/" + fontName + ".ttf";
+            candidates = new String[] {
+                home + "/Library/Fonts/HackNerdFont-Regular.ttf",
+                "/Library/Fonts/HackNerdFont-Regular.ttf"
+            };
+        else
+            candidates = new String[] {
+                home + "/.local/share/fonts/HackNerdFontMono-Regular.ttf",
+                "/usr/share/fonts/TTF/HackNerdFontMono-Regular.ttf"
+            };
+
+        for(String candidate : candidates) {
+            File file = new File(candidate);
+            if(file.isFile()) return file;
         }
 
-        // Register the font with the GraphicsEnvironment.
-        try {
-            GraphicsEnvironment ge = GraphicsEnvironment.
-                getLocalGraphicsEnvironment();
+        System.out.println("Font file not found: " + candidates[candidates.length - 1]);
+        return null;
+    }
 
-            ge.registerFont(Font.createFont(
-                Font.TRUETYPE_FONT,
-                new File(fontFilepath)
-            ));
+    /**
+     * Swap in a font loaded in the background, remember its font file, and
+     * tell the font listeners. Called on the Swing event dispatch thread.
+     * 
+     * @param loaded
+     * @param file
+     */
+    private void fontLoaded(Font loaded, File file) {
+        font = loaded;
+        fontFile = file.getPath();
+        fontLoaded = true;
+        updateSettingsFile();
 
-            return 0;
+        for(Consumer<Font> listener : fontListeners) listener.accept(loaded);
+    }
 
-        } catch(IOException | FontFormatException e) {
-            System.out.println("Filepath of font not found: " +
-                                fontFilepath + " does not exist.");
-            return 1;
-        }
+    /**
+     * Add a listener told on the Swing event dispatch thread when the font
+     * loaded in the background is ready. If it is already loaded, the
+     * listener is told right away.
+     * 
+     * @param listener
+     */
+    public void addFontListener(Consumer<Font> listener) {
+        fontListeners.add(listener);
+        if(fontLoaded) EventQueue.invokeLater(() -> listener.accept(font));
+    }
+
+    /**
+     * The App Directory is where the settings file and other application
+     * data, such as the solver calibration table, are stored. It is not
+     * configurable.
+     * 
+     * @return String
+     */
+    public String getAppDirectory() {
+        return appDirectory;
     }
 
     /**
@@ -268,6 +526,9 @@ public class Settings {
      * from /Library/Fonts/. In Linux, the font is loaded from 
      * /usr/share/fonts/.
      * 
+     * The font file is loaded in the background, so until it is ready this
+     * is the font created from its name, see addFontListener().
+     * 
      * @return Font
      */
     public Font getFont() {
@@ -280,6 +541,9 @@ public class Settings {
      * @param font
      */
     public void setFont(Font font) {
+        // A font of another family does not come from the loaded font file.
+        if(!font.getFamily().equals(this.font.getFamily())) fontFile = null;
+
         this.font = font;
         updateSettingsFile();
     }
@@ -351,6 +615,31 @@ public class Settings {
         updateSettingsFile();
     }
 
+    /**
+     * The painted board setting, where the user can specify whether the
+     * board is painted by a single component, or shown with a panel per
+     * cell.
+     * 
+     * By default, the board is painted, which lays out and paints much
+     * faster, especially when the window is resized.
+     * 
+     * @return boolean
+     */
+    public boolean getPaintedBoard() {
+        return paintedBoard;
+    }
+
+    /**
+     * Set the painted board setting and write it to the settings file. The
+     * setting applies to the next grid shown on the board.
+     * 
+     * @param paintedBoard
+     */
+    public void setPaintedBoard(boolean paintedBoard) {
+        this.paintedBoard = paintedBoard;
+        updateSettingsFile();
+    }
+
     /**
      * The default open state for the application. The following values
      * are accepted:
@@ -511,9 +800,9 @@ public class Settings {
      * The auto save frequnecy, in seconds.
      * 
      * By default, auto-save will save whenever the user makes changes on the
-     * puzzle. However, since elapsed time and other future features are not
-     * user-controlled events, the frequency is used to specify in a separate
-     * thread how often the .sdku file should be saved.
+     * puzzle, once the user pauses. The frequency is the longest time a change
+     * stays unsaved while the user keeps editing, see AutoSaver, which saves
+     * in a separate thread.
      * 
      * For performance and realistic necessity for preserving this kind of
      * information, the frequency should (not required) be following:
@@ -523,7 +812,8 @@ public class Settings {
      *      - 60: 60 second intervals.
      * 
      * If auto-save is off, then this value is 0 automatically. When auto-save
-     * is turned on, by default the value is 30.
+     * is turned on, by default the value is 30, which is also used while the
+     * value is 0.
      * 
      * @return auto-save frequency
      */
@@ -0,0 +1,191 @@
+package gui.backend;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The SolutionSpliterator lazily enumerates every solution of a 9x9 puzzle,
+ * for under-constrained puzzles and blank grids that have far too many
+ * solutions to collect.
+ *
+ * The search is a back-tracking search with the fewest candidates first,
+ * where the search stack is kept explicitly instead of through recursion. A
+ * solution is only searched for when the next one is requested, so stream
+ * operations such as limit() do not do any extra work.
+ *
+ * trySplit() hands half of the untried values of the shallowest branch point
+ * to a new spliterator, so parallel() streams split the search tree into
+ * large, independent sub-trees.
+ *
+ * Solutions are returned as new 9x9 grids of Cells.
+ */
+public class SolutionSpliterator implements Spliterator<Cell[][]> {
+    private final SearchState state;
+
+    // The search stack. For every depth: the cell branched on, the values
+    // not yet tried, and the value currently placed (0 if none).
+    private final int[] cells = new int[82];
+    private final int[] remaining = new int[82];
+    private final int[] placed = new int[82];
+    private int size = 0;
+
+    // True if the puzzle is already solved, and it has not been returned.
+    private boolean solvedPending = false;
+
+    /**
+     * Create a new SolutionSpliterator over every solution of the given grid.
+     *
+     * @param grid
+     */
+    public SolutionSpliterator(Cell[][] grid) {
+        state = new SearchState(grid);
+        if(!state.consistent) return;
+
+        if(state.empty == 0) solvedPending = true;
+        else pushNextCell();
+    }
+
+    /**
+     * Create a new SolutionSpliterator over the sub-tree of the given state
+     * where the given cell takes one of the given values.
+     *
+     * @param state
+     * @param cell
+     * @param values
+     */
+    private SolutionSpliterator(SearchState state, int cell, int values) {
+        this.state = state;
+        cells[0] = cell;
+        remaining[0] = values;
+        placed[0] = 0;
+        size = 1;
+    }
+
+    /**
+     * Get a Stream over every solution of the given grid.
+     *
+     * @param grid
+     * @return Stream<Cell[][]>
+     */
+    public static Stream<Cell[][]> stream(Cell[][] grid) {
+        return StreamSupport.stream(new SolutionSpliterator(grid), false);
+    }
+
+    /**
+     * Search for the next solution and pass it to the given action.
+     *
+     * @param action
+     * @return false if there are no solutions left
+     */
+    @Override
+    public boolean tryAdvance(Consumer<? super Cell[][]> action) {
+        if(solvedPending) {
+            solvedPending = false;
+            action.accept(state.toGrid());
+            return true;
+        }
+
+        while(size > 0) {
+            int top = size - 1;
+
+            // Undo the value tried last at this depth.
+            if(placed[top] != 0) {
+                state.remove(cells[top]);
+                placed[top] = 0;
+            }
+
+            if(remaining[top] == 0) {
+                size--;
+                continue;
+            }
+
+            // Try the next value.
+            int value = Integer.numberOfTrailingZeros(remaining[top]);
+            remaining[top] &= remaining[top] - 1;
+            state.place(cells[top], value);
+            placed[top] = value;
+
+            if(state.empty == 0) {
+                action.accept(state.toGrid());
+                return true;
+            }
+
+            pushNextCell();
+        }
+
+        return false;
+    }
+
+    /**
+     * Split off half of the untried values of the shallowest branch point.
+     *
+     * @return SolutionSpliterator, or null if there is nothing to split
+     */
+    @Override
+    public Spliterator<Cell[][]> trySplit() {
+        for(int depth = 0; depth < size; depth++) {
+            int values = remaining[depth];
+            int count = Integer.bitCount(values);
+
+            // Keep at least one value if the depth has not started yet.
+            if(count == 0 || (count == 1 && placed[depth] == 0)) continue;
+
+            // Give away the upper half of the untried values.
+            int given = values;
+            for(int i = 0; i < count / 2; i++) given &= given - 1;
+            if(placed[depth] == 0 && given == values) given &= given - 1;
+            remaining[depth] &= ~given;
+
+            // Rebuild the state at this depth for the new spliterator.
+            SearchState copy = state.copy();
+            for(int i = size - 1; i >= depth; i--) {
+                if(placed[i] != 0) copy.remove(cells[i]);
+            }
+
+            return new SolutionSpliterator(copy, cells[depth], given);
+        }
+
+        return null;
+    }
+
+    /**
+     * The number of solutions is not known in advance.
+     *
+     * @return Long.MAX_VALUE
+     */
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL;
+    }
+
+    /**
+     * Push the empty cell with the fewest candidates onto the search stack.
+     * A cell without candidates is pushed with no values, so the search
+     * back-tracks from it immediately.
+     */
+    private void pushNextCell() {
+        int best = -1;
+        int bestCount = 10;
+        for(int i = 0; i < 81 && bestCount > 0; i++) {
+            if(state.values[i] != 0) continue;
+
+            int count = Integer.bitCount(state.candidates(i));
+            if(count < bestCount) {
+                best = i;
+                bestCount = count;
+            }
+        }
+
+        cells[size] = best;
+        remaining[size] = state.candidates(best);
+        placed[size] = 0;
+        size++;
+    }
+}
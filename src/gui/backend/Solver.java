@@ -0,0 +1,36 @@
+package gui.backend;
+
+/**
+ * A Solver is a single solving engine for one puzzle, such as the
+ * RestartSolver or the LocalSearchSolver.
+ *
+ * The puzzle is given to the engine when it is created, and solve() returns
+ * the solution as a new grid without modifying the given one. Solvers are
+ * not reused between puzzles.
+ */
+public interface Solver {
+    /**
+     * Solve the puzzle.
+     *
+     * @return the solved grid, or null if no solution was found or the solve
+     *         was cancelled
+     */
+    Cell[][] solve();
+
+    /**
+     * Cancel the solve running on another thread, or the next solve if none
+     * has started yet, for eg. when the solve is a task waiting in a pool.
+     * The solve stops as soon as it notices the cancellation and returns
+     * null. The cancellation is consumed when that solve returns, so the
+     * solver can be solved again afterwards.
+     */
+    void cancel();
+
+    /**
+     * Check if the last solve that returned was cancelled, ie. if a null
+     * result of it does not mean that no solution exists.
+     *
+     * @return boolean
+     */
+    boolean isCancelled();
+}
@@ -0,0 +1,240 @@
+package gui.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The SolverDispatcher picks the solving engine for a puzzle, so callers do
+ * not have to guess which one to use.
+ *
+ * For every puzzle the cheap PuzzleFeatures are computed, and the puzzle is
+ * routed to the engine that has historically been the fastest for puzzles in
+ * the same bucket, according to a CalibrationTable. Buckets without any
+ * timings fall back to a simple rule of thumb.
+ *
+ * The available engines are:
+ *      - "backtrack": a plain back-tracking search with the fewest
+ *          candidates first;
+ *      - "restart": the randomized restart search; and
+ *      - "local": the multi-threaded simulated annealing search, which falls
+ *          back to "restart" if it does not find a solution in time; and
+ *      - "portfolio": a PortfolioSolver racing the other engines on one
+ *          thread each.
+ *
+ * The app loads the calibration table written by "--calibrate" at startup
+ * with load(), and solves its puzzles with dispatch(). Without a table, or
+ * with an empty one, dispatch() uses the default "restart" engine. The time
+ * of every successful dispatched solve is recorded in the table, which is
+ * written back when the app exits.
+ */
+public class SolverDispatcher {
+    public static final String BACKTRACK = "backtrack";
+    public static final String RESTART = "restart";
+    public static final String LOCAL = "local";
+    public static final String PORTFOLIO = "portfolio";
+    public static final String[] ENGINES = {BACKTRACK, RESTART, LOCAL, PORTFOLIO};
+
+    // The name of the calibration table in the app directory.
+    public static final String TABLE_FILE = "calibration.table";
+
+    // Local search cannot prove there is no solution, so limit its time.
+    private static final long LOCAL_TIME_LIMIT = 2000;
+
+    // The dispatcher of the app, or null if no calibration table is loaded,
+    // and the file its table is written back to.
+    private static volatile SolverDispatcher installed;
+    private static volatile File installedFile;
+    private static boolean saveOnExit = false;
+
+    private final CalibrationTable table;
+    private volatile String lastEngine;
+
+    /**
+     * Create a new SolverDispatcher routing puzzles with the given table.
+     *
+     * @param table
+     */
+    public SolverDispatcher(CalibrationTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Load the calibration table from the given app directory, and route
+     * every later dispatch() with it. If there is no table, or it holds no
+     * timings, dispatch() keeps using the default engine.
+     *
+     * @param appDirectory
+     */
+    public static synchronized void load(File appDirectory) {
+        File file = new File(appDirectory, TABLE_FILE);
+        CalibrationTable table = new CalibrationTable(file);
+        installed = table.isEmpty() ? null : new SolverDispatcher(table);
+        installedFile = file;
+
+        // Write the timings of the real solves back when the app exits.
+        if(installed != null && !saveOnExit) {
+            Runtime.getRuntime().addShutdownHook(new Thread(SolverDispatcher::saveInstalled));
+            saveOnExit = true;
+        }
+    }
+
+    /**
+     * Write the table of the dispatcher used by dispatch() back to its file,
+     * if timings were recorded since it was loaded.
+     */
+    private static void saveInstalled() {
+        SolverDispatcher dispatcher = installed;
+        if(dispatcher == null || !dispatcher.table.isChanged()) return;
+
+        try {
+            dispatcher.table.save(installedFile);
+        } catch(IOException e) {
+            System.out.println("Unable to save the calibration table: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Solve the given puzzle with the engine its bucket was calibrated for,
+     * or with the default "restart" engine if no calibration table is
+     * loaded, see load().
+     *
+     * @param grid
+     * @return the solved grid, or null if the puzzle has no solution
+     */
+    public static Cell[][] dispatch(Cell[][] grid) {
+        SolverDispatcher dispatcher = installed;
+        if(dispatcher == null) return createSolver(RESTART, grid).solve();
+
+        return dispatcher.solve(grid);
+    }
+
+    /**
+     * Get the dispatcher used by dispatch().
+     *
+     * @return SolverDispatcher, or null if no calibration table is loaded
+     */
+    public static SolverDispatcher getInstalled() {
+        return installed;
+    }
+
+    /**
+     * Solve the given puzzle with the engine chosen for its features, and
+     * record the time it took in the calibration table. Only engines that
+     * found the solution are recorded, so a "local" search that gave up is
+     * not, but the "restart" search that then solved the puzzle is.
+     *
+     * @param grid
+     * @return the solved grid, or null if the puzzle has no solution
+     */
+    public Cell[][] solve(Cell[][] grid) {
+        PuzzleFeatures features = new PuzzleFeatures(grid);
+        String engine = choose(features);
+
+        long start = System.nanoTime();
+        Cell[][] solution = createSolver(engine, grid).solve();
+        if(solution == null && engine.equals(LOCAL)) {
+            engine = RESTART;
+            start = System.nanoTime();
+            solution = createSolver(engine, grid).solve();
+        }
+
+        if(solution != null)
+            table.record(features.getBucket(), engine, System.nanoTime() - start);
+
+        lastEngine = engine;
+        return solution;
+    }
+
+    /**
+     * Choose the engine for a puzzle with the given features.
+     *
+     * @param features
+     * @return the name of the engine
+     */
+    public String choose(PuzzleFeatures features) {
+        String fastest = table.getFastest(features.getBucket());
+        if(fastest != null) return fastest;
+
+        // Puzzles that singles solve or break need very little searching.
+        if(features.hasContradiction() || features.getPropagationProgress() >= 1)
+            return BACKTRACK;
+
+        return RESTART;
+    }
+
+    /**
+     * Get the name of the engine that produced the last result of solve().
+     *
+     * @return String, or null if nothing was solved yet
+     */
+    public String getLastEngine() {
+        return lastEngine;
+    }
+
+    /**
+     * Get the calibration table used for routing.
+     *
+     * @return CalibrationTable
+     */
+    public CalibrationTable getTable() {
+        return table;
+    }
+
+    /**
+     * Create a new Solver of the given engine for the given puzzle.
+     *
+     * @param engine
+     * @param grid
+     * @return Solver
+     */
+    public static Solver createSolver(String engine, Cell[][] grid) {
+        switch(engine) {
+            case BACKTRACK:
+                RestartSolver backtrack = new RestartSolver(grid, 0);
+                backtrack.setRestarts(false);
+                return backtrack;
+            case RESTART:
+                return new RestartSolver(grid, 0);
+            case LOCAL:
+                LocalSearchSolver local = new LocalSearchSolver(grid, 0);
+                local.setTimeLimit(LOCAL_TIME_LIMIT);
+                return local;
+            case PORTFOLIO:
+                return PortfolioSolver.createDefault(
+                    grid, Math.max(3, Runtime.getRuntime().availableProcessors())
+                );
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+    }
+
+    /**
+     * Benchmark every engine on every given puzzle and return a new
+     * CalibrationTable with the timings.
+     *
+     * The first puzzle is solved once by every engine before measuring, so
+     * the timings are not skewed by the JIT compiler warming up.
+     *
+     * @param puzzles
+     * @return CalibrationTable
+     */
+    public static CalibrationTable calibrate(List<Cell[][]> puzzles) {
+        CalibrationTable table = new CalibrationTable();
+        if(puzzles.isEmpty()) return table;
+
+        for(String engine : ENGINES)
+            createSolver(engine, puzzles.get(0)).solve();
+
+        for(Cell[][] grid : puzzles) {
+            String bucket = new PuzzleFeatures(grid).getBucket();
+            for(String engine : ENGINES) {
+                long start = System.nanoTime();
+                createSolver(engine, grid).solve();
+                table.record(bucket, engine, System.nanoTime() - start);
+            }
+        }
+
+        return table;
+    }
+}
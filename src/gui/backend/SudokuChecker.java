@@ -1,8 +1,7 @@
 package gui.backend;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
+import java.util.stream.Stream;
 
 
 
@@ -40,6 +39,18 @@ public class SudokuChecker {
 		}
 	}
 
+	/**
+	 * Create a new SudokuChecker object for the given snapshot of a grid.
+	 * 
+	 * The checker works on its own copy of the snapshot, so it can be used on a
+	 * background thread while the grid keeps being edited.
+	 * 
+	 * @param snapshot
+	 */
+	public SudokuChecker(GridSnapshot snapshot) {
+		this(snapshot.toCells());
+	}
+
 	/**
 	 * Check if the given value can be placed in the given cell of the grid.
 	 * 
@@ -113,15 +124,53 @@ public class SudokuChecker {
 	}
 
 	/**
-	 * Get the solution to the Sudoku puzzle.
+	 * Get the solution to the Sudoku puzzle, solved with the calibrated engine,
+	 * see SolverDispatcher.dispatch(). The values of the solution are written
+	 * into the grid, which is left as it is if the puzzle has no solution.
 	 * 
 	 * @return Cell[][]
 	 */
 	public Cell[][] getSolution() {
-		solve();
+		Cell[][] solution = SolverDispatcher.dispatch(grid);
+		if (solution == null)
+			return grid;
+
+		for (int row = 0; row < 9; row++) {
+			for (int col = 0; col < 9; col++) {
+				if (grid[row][col].getValue() == 0)
+					grid[row][col].setValue(solution[row][col].getValue(), true);
+			}
+		}
 		return grid;
 	}
 
+	/**
+	 * Get the solution to the Sudoku puzzle using the randomized restart search,
+	 * which is far less likely to get stuck on hard puzzles.
+	 *
+	 * Unlike getSolution(), the grid is not modified and the solution is returned
+	 * as a new grid. The same seed always produces the same search.
+	 *
+	 * @see RestartSolver
+	 * @param seed
+	 * @return Cell[][], or null if the puzzle has no solution
+	 */
+	public Cell[][] getSolution(long seed) {
+		return new RestartSolver(grid, seed).solve();
+	}
+
+	/**
+	 * Get a lazy Stream over every solution of the Sudoku puzzle. Solutions are
+	 * only searched for as they are consumed, so the stream can be used with
+	 * limit() even on a blank grid, and it splits well with parallel().
+	 *
+	 * @see SolutionSpliterator
+	 * @return Stream<Cell[][]>
+	 */
+	public Stream<Cell[][]> getSolutions() {
+		return SolutionSpliterator.stream(grid);
+	}
+
 	/**
 	 * Given two arrays of numbers, return the intersection of the two arrays.
 	 * 
@@ -209,75 +258,6 @@ public class SudokuChecker {
 		}
 	}
 
-	/**
-	 * Solve the Sudoku puzzle.
-	 * 
-	 * @param grid
-	 */
-	private boolean solve() {
-		return solve(0, 0);
-	}
-
-	/**
-	 * Overloaded method that solves the Sudoku puzzle moving from the position given to the end
-	 * 
-	 * @param row
-	 * @param col
-	 * @return
-	 */
-	private boolean solve(int row, int col) {
-		int nextCol = (col + 1) % 9;
-		int nextRow = (nextCol == 0) ? row + 1 : row;
-		// Base case - progressed past the last row and column.
-		if (row == 9) {
-//			grid.printTable();
-			return true;
-		}
-		// If the cell has a value it is skipped.
-		if (grid[row][col].getValue() != 0) {
-			solve(nextRow, nextCol);
-		} else {
-			// An empty cell prompts a generation of possible numbers
-			List<Integer> possibleNumbers = getAllRemainingNumbers(row, col);
-			if (possibleNumbers.size() == 0) // If there are no available numbers the solve() returns false
-				return false;
-			// each possible number is given in ascending order
-			for (Integer el : possibleNumbers) {
-				grid[row][col].setValue(el.intValue(), true);
-					
-				// here is the check to see if the next possible number needs to be tested
-				if (solve(nextRow, nextCol))
-					return true;
-				// reset the cell so that it is not assumed to be solved after failing the
-				// current tested values }
-			}
-		}
-		return false;
-	}
-	
-	/**
-	 * This may be redundant but I needed an method that could be called to get a list of all
-	 * remaining numbers after eliminating 1-9 by standard Sudoku rules.
-	 * This method calls the 3 methods already in this class to build a HashSet of 
-	 * known values which are used to verify which numbers remain as possible solutions.
-	 * @param row
-	 * @param col
-	 * @return ArrayList<Integer> results;
-	 */
-	private ArrayList<Integer> getAllRemainingNumbers(int row, int col) {
-		HashSet<Integer> nums = new HashSet<>();
-		ArrayList<Integer> results = new ArrayList<>();
-		nums.addAll(getColRemainingNumbers(col));
-		nums.addAll(getRowRemainingNumbers(row));
-		nums.addAll(getBoxRemainingNumbers(row, col));
-		for (int i = 1; i <= 9; i++) {
-			if (!nums.contains(i)) {
-				results.add(i);
-			}
-		}
-		return results;
-	}
-
 	/**
 	 * Get any number between 1 and 9 that is not in the row.
 	 * 
@@ -381,18 +361,41 @@ public class SudokuChecker {
 	 * @return true if the grid is a valid Sudoku puzzle, and false otherwise
 	 */
 	private boolean isValidSolution() {
-		// Check that every cell has a value between 1 and 9.
-		for (int i = 0; i < 9; i++) {
-			for (int j = 0; j < 9; j++) {
-				if (grid[i][j].getValue() < 1 || grid[i][j].getValue() > 9)
+		return isValidSolution(grid);
+	}
+
+	/**
+	 * Given an n x n grid of numbers, where n is a perfect square, return true if
+	 * the grid is a valid Sudoku puzzle solution, and false otherwise.
+	 * 
+	 * A valid Sudoku puzzle is one where each row, column, and box contains the
+	 * numbers 1-n exactly once. For a standard 9x9 grid, the boxes are the 3x3
+	 * subgrids.
+	 * 
+	 * @param grid
+	 * @return true if the grid is a valid Sudoku puzzle, and false otherwise
+	 */
+	public static boolean isValidSolution(Cell[][] grid) {
+		int n = grid.length;
+		int k = (int) Math.round(Math.sqrt(n));
+		if (k * k != n)
+			return false;
+
+		// Check that every cell has a value between 1 and n.
+		for (int i = 0; i < n; i++) {
+			if (grid[i].length != n)
+				return false;
+
+			for (int j = 0; j < n; j++) {
+				if (grid[i][j].getValue() < 1 || grid[i][j].getValue() > n)
 					return false;
 			}
 		}
 
-		// Check that every row contains the numbers 1-9 exactly once.
-		for (int i = 0; i < 9; i++) {
-			int[] row = new int[9];
-			for (int j = 0; j < 9; j++)
+		// Check that every row contains the numbers 1-n exactly once.
+		for (int i = 0; i < n; i++) {
+			int[] row = new int[n];
+			for (int j = 0; j < n; j++)
 				row[j] = grid[i][j].getValue();
 
 			if (!isValidSet(row)) {
@@ -401,10 +404,10 @@ public class SudokuChecker {
 			}
 		}
 
-		// Check that every column contains the numbers 1-9 exactly once.
-		for (int i = 0; i < 9; i++) {
-			int[] col = new int[9];
-			for (int j = 0; j < 9; j++)
+		// Check that every column contains the numbers 1-n exactly once.
+		for (int i = 0; i < n; i++) {
+			int[] col = new int[n];
+			for (int j = 0; j < n; j++)
 				col[j] = grid[j][i].getValue();
 
 			if (!isValidSet(col)) {
@@ -413,13 +416,13 @@ public class SudokuChecker {
 			}
 		}
 
-		// Check that every 3x3 subgrid contains the numbers 1-9 exactly once.
-		for (int i = 0; i < 3; i++) {
-			for (int j = 0; j < 3; j++) {
-				int[] box = new int[9];
-				for (int k = 0; k < 3; k++) {
-					for (int l = 0; l < 3; l++)
-						box[k * 3 + l] = grid[i * 3 + k][j * 3 + l].getValue();
+		// Check that every box contains the numbers 1-n exactly once.
+		for (int i = 0; i < k; i++) {
+			for (int j = 0; j < k; j++) {
+				int[] box = new int[n];
+				for (int l = 0; l < k; l++) {
+					for (int m = 0; m < k; m++)
+						box[l * k + m] = grid[i * k + l][j * k + m].getValue();
 				}
 				if (!isValidSet(box)) {
 					System.out.println("Box at row " + i + " and column " + j + " is invalid.");
@@ -432,17 +435,17 @@ public class SudokuChecker {
 	}
 
 	/**
-	 * Given an array of 9 numbers, return true if the array contains the numbers
-	 * 1-9 exactly once, and false otherwise.
+	 * Given an array of n numbers, return true if the array contains the numbers
+	 * 1-n exactly once, and false otherwise.
 	 * 
-	 * @param set an array of 9 numbers
-	 * @return true if the array contains the numbers 1-9 exactly once, and false
+	 * @param set an array of n numbers
+	 * @return true if the array contains the numbers 1-n exactly once, and false
 	 *         otherwise
 	 */
-	private boolean isValidSet(int[] set) {
-		boolean[] found = new boolean[9];
-		for (int i = 0; i < 9; i++) {
-			if (set[i] < 1 || set[i] > 9)
+	private static boolean isValidSet(int[] set) {
+		boolean[] found = new boolean[set.length];
+		for (int i = 0; i < set.length; i++) {
+			if (set[i] < 1 || set[i] > set.length)
 				return false;
 
 			else if (found[set[i] - 1])
@@ -454,4 +457,4 @@ public class SudokuChecker {
 		}
 		return true;
 	}
-}
\ No newline at end of file
+}
@@ -1,7 +1,15 @@
 package gui.backend;
 
 import java.awt.Color;
+import java.awt.Font;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import javax.swing.border.Border;
+import javax.swing.border.LineBorder;
 
 /**
  * The Theme class represents the color scheme for the GUI components.
@@ -24,8 +32,25 @@ import java.io.File;
  *      - secondaryButtonHighlight
  *      - primaryButtonBorder
  *      - secondaryButtonBorder
+ *      - errorBackground
+ *      - errorText
+ *      - errorBorder
+ *
+ * A .theme file is a JSON object mapping any of these names to a color
+ * string accepted by Color.decode, for eg. "#4A245E". Colors missing from the
+ * file keep their default values.
+ *
+ * The resources derived from the colors, ie. the Borders of the cells and the
+ * Fonts of values and notes, are built once per theme and shared by every
+ * cell, so styling a cell never allocates.
  */
 public class Theme {
+    // The width of the border of a cell.
+    private static final int CELL_BORDER_WIDTH = 2;
+
+    // The size of the font of a note relative to the font of a value.
+    private static final float NOTE_FONT_SCALE = 0.75f;
+
     private Color primaryBackground;
     private Color secondaryBackground;
     private Color primaryText;
@@ -44,6 +69,16 @@ public class Theme {
     private Color errorText;
     private Color errorBorder;
 
+    // The cached Borders of a cell, rebuilt when their color changes.
+    private Border cellBorder;
+    private Border selectedCellBorder;
+    private Border errorCellBorder;
+
+    // The cached Fonts of values and notes, and the font they derive from.
+    private Font baseFont;
+    private Font valueFont;
+    private Font noteFont;
+
     /**
      * Constructs a new Theme object with the given theme file.
      * This object provides the colors for the GUI components.
@@ -55,12 +90,131 @@ public class Theme {
     }
 
     /**
-     * Reads the .theme file and sets the colors for the GUI components.
-     * Once complete, sets the theme for the GUI components.
+     * Reads the .theme file and sets the colors for the GUI components,
+     * starting from the default theme. If the file does not exist or is
+     * malformed, the default theme is used.
+     *
+     * @param file
      */
     private void readTheme(File file) {
-        // TODO: Read the .theme file
         setTheme();
+        if(file == null || !file.isFile()) return;
+
+        Map<String, Object> json;
+        try {
+            json = Json.parseObject(new String(
+                Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8
+            ));
+        } catch(IOException e) {
+            System.out.println("Unable to read " + file + ": " + e.getMessage());
+            return;
+        }
+
+        for(Map.Entry<String, Object> entry : json.entrySet()) {
+            Color color;
+            try {
+                color = Color.decode(String.valueOf(entry.getValue()));
+            } catch(NumberFormatException e) {
+                System.out.println("Invalid color for " + entry.getKey() + " in " + file);
+                continue;
+            }
+
+            switch(entry.getKey()) {
+                case "primaryBackground": primaryBackground = color; break;
+                case "secondaryBackground": secondaryBackground = color; break;
+                case "primaryText": primaryText = color; break;
+                case "secondaryText": secondaryText = color; break;
+                case "primaryHighlight": primaryHighlight = color; break;
+                case "secondaryHighlight": secondaryHighlight = color; break;
+                case "primaryBorder": primaryBorder = color; break;
+                case "secondaryBorder": secondaryBorder = color; break;
+                case "primaryButton": primaryButton = color; break;
+                case "secondaryButton": secondaryButton = color; break;
+                case "primaryButtonHighlight": primaryButtonHighlight = color; break;
+                case "secondaryButtonHighlight": secondaryButtonHighlight = color; break;
+                case "primaryButtonBorder": primaryButtonBorder = color; break;
+                case "secondaryButtonBorder": secondaryButtonBorder = color; break;
+                case "errorBackground": errorBackground = color; break;
+                case "errorText": errorText = color; break;
+                case "errorBorder": errorBorder = color; break;
+                default:
+                    System.out.println("Unknown theme color " + entry.getKey() + " in " + file);
+            }
+        }
+
+        buildBorders();
+    }
+
+    /**
+     * Build the Borders of a cell from the border colors.
+     */
+    private void buildBorders() {
+        cellBorder = new LineBorder(primaryBorder, CELL_BORDER_WIDTH);
+        selectedCellBorder = new LineBorder(secondaryBorder, CELL_BORDER_WIDTH);
+        errorCellBorder = new LineBorder(errorBorder, CELL_BORDER_WIDTH);
+    }
+
+    /**
+     * Gets the border of a cell that is not selected.
+     *
+     * @return the shared cell border
+     */
+    public Border getCellBorder() {
+        return cellBorder;
+    }
+
+    /**
+     * Gets the border of a selected cell.
+     *
+     * @return the shared selected cell border
+     */
+    public Border getSelectedCellBorder() {
+        return selectedCellBorder;
+    }
+
+    /**
+     * Gets the border of a cell with an incorrect value.
+     *
+     * @return the shared error cell border
+     */
+    public Border getErrorCellBorder() {
+        return errorCellBorder;
+    }
+
+    /**
+     * Gets the font of the value of a cell, derived from the given font.
+     *
+     * @param font the font from the Settings
+     * @return the shared value font
+     */
+    public Font getValueFont(Font font) {
+        deriveFonts(font);
+        return valueFont;
+    }
+
+    /**
+     * Gets the font of the notes of a cell, derived from the given font.
+     *
+     * @param font the font from the Settings
+     * @return the shared note font
+     */
+    public Font getNoteFont(Font font) {
+        deriveFonts(font);
+        return noteFont;
+    }
+
+    /**
+     * Derive the value and note fonts from the given font, unless they were
+     * already derived from it.
+     *
+     * @param font
+     */
+    private void deriveFonts(Font font) {
+        if(font.equals(baseFont)) return;
+
+        baseFont = font;
+        valueFont = font;
+        noteFont = font.deriveFont(font.getSize2D() * NOTE_FONT_SCALE);
     }
 
     /**
@@ -76,6 +230,7 @@ public class Theme {
         errorBackground = Color.decode("#FF0000");
         errorText = Color.decode("#FFFFFF");
         errorBorder = Color.decode("#FF0000");
+        buildBorders();
     }
 
     /**
@@ -202,6 +357,7 @@ public class Theme {
      */
     public void setPrimaryBorder(Color primaryBorder) {
         this.primaryBorder = primaryBorder;
+        buildBorders();
     }
 
     /**
@@ -220,6 +376,7 @@ public class Theme {
      */
     public void setSecondaryBorder(Color secondaryBorder) {
         this.secondaryBorder = secondaryBorder;
+        buildBorders();
     }
 
     /**
@@ -382,5 +539,6 @@ public class Theme {
      */
     public void setErrorBorder(Color errorBorder) {
         this.errorBorder = errorBorder;
+        buildBorders();
     }
 }